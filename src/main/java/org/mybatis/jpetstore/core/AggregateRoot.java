@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.mybatis.jpetstore.core.event.DomainEvent;
+
+/**
+ * Base class of the event sourced entities: it keeps the events raised since the entity was loaded and the revision of
+ * its stream, so {@link org.mybatis.jpetstore.repository.EventSourcedRepository} can store and rebuild any of them the
+ * same way.
+ * <p>
+ * Subclasses change their state only in {@link #mutate(DomainEvent)}, and capture it for snapshots and caching in
+ * {@link #snapshot()}.
+ */
+public abstract class AggregateRoot implements Serializable {
+
+  private static final long serialVersionUID = 2385146871542634307L;
+
+  private final List<DomainEvent> eventCache = new ArrayList<>();
+  private long version = EventStore.NO_STREAM;
+
+  /**
+   * Gets the id of the stream holding the events of an entity.
+   *
+   * @param type
+   *          the entity type
+   * @param id
+   *          the entity id
+   *
+   * @return the stream id
+   */
+  public static String streamId(Class<?> type, String id) {
+    return type.getName() + "." + id;
+  }
+
+  /**
+   * Gets the id of the entity within its type.
+   *
+   * @return the id
+   */
+  public abstract String getId();
+
+  /**
+   * Gets the type recorded in the events of the entity and used to name its stream.
+   *
+   * @return the type
+   */
+  protected abstract Class<? extends AggregateRoot> getType();
+
+  public String getStreamId() {
+    return streamId(getType(), getId());
+  }
+
+  /**
+   * Gets the revision of the last event loaded from or saved to the store.
+   *
+   * @return the version, or -1 if the entity has not been persisted yet
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
+  /**
+   * Applies an event to the state of the entity, whether it was just raised or is being replayed from the store.
+   *
+   * @param event
+   *          the event
+   */
+  public abstract void mutate(DomainEvent event);
+
+  /**
+   * Captures the persistent state of the entity.
+   *
+   * @return the state
+   */
+  public abstract Map<String, Object> snapshot();
+
+  /**
+   * Restores the state captured by {@link #snapshot()} without raising any event.
+   *
+   * @param state
+   *          the state
+   */
+  public abstract void restore(Map<String, Object> state);
+
+  /**
+   * Applies a new event and records it to be saved.
+   *
+   * @param event
+   *          the event
+   */
+  protected void cause(DomainEvent event) {
+    mutate(event);
+    record(event);
+  }
+
+  /**
+   * Records an event already applied to the state, to be saved.
+   *
+   * @param event
+   *          the event
+   */
+  protected void record(DomainEvent event) {
+    eventCache.add(event);
+  }
+
+  /**
+   * Forgets the recorded events, once they are saved.
+   */
+  public void reset() {
+    eventCache.clear();
+  }
+
+  public List<DomainEvent> getEvents() {
+    return eventCache;
+  }
+
+}
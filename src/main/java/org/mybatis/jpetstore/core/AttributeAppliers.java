@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the attributes of an aggregate by name, so the name and value carried by an event can be applied
+ * without a switch over every attribute of every aggregate.
+ * <p>
+ * Each attribute is a field of the aggregate. Its getter and setter are resolved once into method handles when the
+ * aggregate class builds its appliers, typically in a static field, and applying an event is then a map lookup and a
+ * direct field write.
+ *
+ * @param <T>
+ *          the aggregate type
+ */
+public final class AttributeAppliers<T> {
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+  private final Map<String, MethodHandle> getters;
+  private final Map<String, MethodHandle> setters;
+
+  private AttributeAppliers(Map<String, MethodHandle> getters, Map<String, MethodHandle> setters) {
+    this.getters = getters;
+    this.setters = setters;
+  }
+
+  /**
+   * Resolves the accessors of the given attributes.
+   *
+   * @param <T>
+   *          the aggregate type
+   * @param lookup
+   *          a lookup with access to the fields, usually {@code MethodHandles.lookup()} called from the aggregate
+   *          itself
+   * @param type
+   *          the aggregate class
+   * @param names
+   *          the attribute names, each the name of a field of the aggregate
+   *
+   * @return the appliers
+   *
+   * @throws IllegalArgumentException
+   *           if an attribute has no field the lookup can access
+   */
+  public static <T> AttributeAppliers<T> of(MethodHandles.Lookup lookup, Class<T> type, String... names) {
+    Map<String, MethodHandle> getters = new LinkedHashMap<>();
+    Map<String, MethodHandle> setters = new LinkedHashMap<>();
+    for (String name : names) {
+      try {
+        Field field = type.getDeclaredField(name);
+        getters.put(name, lookup.unreflectGetter(field).asType(GETTER_TYPE));
+        setters.put(name, lookup.unreflectSetter(field).asType(SETTER_TYPE));
+      } catch (NoSuchFieldException | IllegalAccessException e) {
+        throw new IllegalArgumentException("No accessible field " + name + " in " + type.getName(), e);
+      }
+    }
+    return new AttributeAppliers<>(getters, setters);
+  }
+
+  /**
+   * Sets an attribute of the aggregate. Primitive attributes are unboxed from the value.
+   *
+   * @param target
+   *          the aggregate
+   * @param name
+   *          the attribute name
+   * @param value
+   *          the new value
+   *
+   * @return false if the aggregate has no such attribute, which is left for newer versions of the aggregate to apply
+   */
+  public boolean apply(T target, String name, Object value) {
+    MethodHandle setter = setters.get(name);
+    if (setter == null) {
+      return false;
+    }
+    try {
+      setter.invokeExact((Object) target, value);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+    return true;
+  }
+
+  /**
+   * Reads every attribute of the aggregate.
+   *
+   * @param target
+   *          the aggregate
+   *
+   * @return the values, keyed by attribute name in the order the attributes were given
+   */
+  public Map<String, Object> read(T target) {
+    Map<String, Object> state = new LinkedHashMap<>();
+    getters.forEach((name, getter) -> {
+      try {
+        state.put(name, (Object) getter.invokeExact((Object) target));
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    return state;
+  }
+
+  public Set<String> names() {
+    return Collections.unmodifiableSet(setters.keySet());
+  }
+
+}
@@ -0,0 +1,346 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link EventCodec} writing events in a compact binary form.
+ * <p>
+ * Fields are written in a fixed order with variable length integers. Type names, entity types, attribute names and
+ * other frequent strings are replaced by their index in a dictionary given by the domain, and the entity type prefix of
+ * the stream id is not repeated. Events this codec has no layout for, or whose value has no binary form, are written as
+ * JSON by the {@link JsonEventCodec} instead. JSON payloads are recognised by their first byte, so a store can switch
+ * codecs without rewriting its history. Snapshots are always JSON.
+ */
+public class BinaryEventCodec implements EventCodec {
+  private static final Logger log = LoggerFactory.getLogger(BinaryEventCodec.class);
+
+  private static final byte MAGIC = (byte) 0xB1;
+  private static final byte JSON_START = '{';
+
+  private static final int NULL = 0;
+  private static final int STRING = 1;
+  private static final int TRUE = 2;
+  private static final int FALSE = 3;
+  private static final int INT = 4;
+  private static final int LONG = 5;
+  private static final int DOUBLE = 6;
+  private static final int DECIMAL = 7;
+
+  private final EventTypeRegistry registry;
+  private final JsonEventCodec json;
+  private final List<String> dictionary;
+  private final Map<String, Integer> codes = new HashMap<>();
+  private boolean ignoreUnknownTypes;
+
+  public BinaryEventCodec() {
+    this(EventTypeRegistry.defaults());
+  }
+
+  public BinaryEventCodec(EventTypeRegistry registry) {
+    this(registry, Collections.emptyList());
+  }
+
+  /**
+   * Instantiates a new binary codec.
+   *
+   * @param registry
+   *          the event type registry
+   * @param dictionary
+   *          the strings replaced by a code, in code order. Codes are written to the store, so the entries of a
+   *          dictionary in use may only ever be appended to
+   */
+  public BinaryEventCodec(EventTypeRegistry registry, List<String> dictionary) {
+    this.registry = registry;
+    this.json = new JsonEventCodec(registry);
+    this.dictionary = dictionary;
+    for (int i = 0; i < dictionary.size(); i++) {
+      codes.putIfAbsent(dictionary.get(i), i + 1);
+    }
+  }
+
+  /**
+   * Sets whether events of a type missing from the registry are skipped, with a warning, instead of failing the read.
+   *
+   * @param ignoreUnknownTypes
+   *          true to skip them
+   */
+  public void setIgnoreUnknownTypes(boolean ignoreUnknownTypes) {
+    this.ignoreUnknownTypes = ignoreUnknownTypes;
+    json.setIgnoreUnknownTypes(ignoreUnknownTypes);
+  }
+
+  @Override
+  public String typeName(DomainEvent event) {
+    return registry.nameOf(event.getClass());
+  }
+
+  @Override
+  public byte[] encode(DomainEvent event) throws IOException {
+    if (!hasLayout(event) || event.getEntityType() == null || event.getStreamId() == null) {
+      return json.encode(event);
+    }
+    Output out = new Output();
+    out.write(MAGIC);
+    out.writeCoded(typeName(event));
+    String entityType = event.getEntityType();
+    out.writeCoded(entityType);
+    String streamId = event.getStreamId();
+    if (streamId.startsWith(entityType + ".")) {
+      out.writeVarLong(1);
+      out.writeString(streamId.substring(entityType.length() + 1));
+    } else {
+      out.writeVarLong(0);
+      out.writeString(streamId);
+    }
+    out.writeVarLong(event.getTimestamp());
+    if (event instanceof AttributeUpdatedEvent) {
+      AttributeUpdatedEvent updated = (AttributeUpdatedEvent) event;
+      out.writeCoded(updated.getName());
+      out.writeValue(updated.getValue());
+    } else if (event instanceof AttributesUpdatedEvent) {
+      Map<String, Object> attributes = ((AttributesUpdatedEvent) event).getAttributes();
+      out.writeVarLong(attributes.size());
+      attributes.forEach((name, value) -> {
+        out.writeCoded(name);
+        out.writeValue(value);
+      });
+    }
+    return out.toByteArray();
+  }
+
+  private static boolean hasLayout(DomainEvent event) {
+    Class<?> type = event.getClass();
+    if (type == EntityCreatedEvent.class) {
+      return true;
+    }
+    if (type == AttributeUpdatedEvent.class) {
+      return isSupported(((AttributeUpdatedEvent) event).getValue());
+    }
+    return type == AttributesUpdatedEvent.class
+        && ((AttributesUpdatedEvent) event).getAttributes().values().stream().allMatch(BinaryEventCodec::isSupported);
+  }
+
+  private static boolean isSupported(Object value) {
+    return value == null || value instanceof String || value instanceof Boolean || value instanceof Integer
+        || value instanceof Long || value instanceof Double || value instanceof BigDecimal;
+  }
+
+  @Override
+  public DomainEvent decode(byte[] data) throws IOException {
+    if (data.length > 0 && data[0] == JSON_START) {
+      return json.decode(data);
+    }
+    Input in = new Input(data);
+    if (in.buffer.get() != MAGIC) {
+      throw new IOException("Not a binary event payload");
+    }
+    String eventType = in.readCoded();
+    Class<? extends DomainEvent> type = registry.typeOf(eventType);
+    if (type == null) {
+      if (!ignoreUnknownTypes) {
+        throw new UnknownEventTypeException(eventType);
+      }
+      log.warn("Skipping event of unknown type {}", eventType);
+      return null;
+    }
+    String entityType = in.readCoded();
+    String streamId = in.readVarLong() == 1 ? entityType + "." + in.readString() : in.readString();
+    long timestamp = in.readVarLong();
+    if (type == EntityCreatedEvent.class) {
+      return new EntityCreatedEvent(streamId, entityType, timestamp);
+    }
+    if (type == AttributesUpdatedEvent.class) {
+      AttributesUpdatedEvent event = new AttributesUpdatedEvent(streamId, entityType, timestamp);
+      for (long i = in.readVarLong(); i > 0; i--) {
+        event.getAttributes().put(in.readCoded(), in.readValue());
+      }
+      return event;
+    }
+    AttributeUpdatedEvent event = new AttributeUpdatedEvent(streamId, entityType, timestamp);
+    event.setName(in.readCoded());
+    event.setValue(in.readValue());
+    return event;
+  }
+
+  @Override
+  public DomainEvent decode(String eventType, byte[] data) throws IOException {
+    if (data.length > 0 && data[0] == JSON_START) {
+      return json.decode(eventType, data);
+    }
+    return decode(data);
+  }
+
+  @Override
+  public byte[] encodeSnapshot(Snapshot snapshot) throws IOException {
+    return json.encodeSnapshot(snapshot);
+  }
+
+  @Override
+  public Snapshot decodeSnapshot(byte[] data) throws IOException {
+    return json.decodeSnapshot(data);
+  }
+
+  @Override
+  public boolean isJson(byte[] data) {
+    return data.length > 0 && data[0] == JSON_START;
+  }
+
+  private final class Output extends ByteArrayOutputStream {
+
+    Output() {
+      super(64);
+    }
+
+    void writeVarLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void writeString(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the dictionary code of the string, or 0 followed by the string itself.
+     */
+    void writeCoded(String value) {
+      Integer code = codes.get(value);
+      if (code != null) {
+        writeVarLong(code);
+      } else {
+        writeVarLong(0);
+        writeString(value);
+      }
+    }
+
+    void writeValue(Object value) {
+      if (value == null) {
+        write(NULL);
+      } else if (value instanceof String) {
+        write(STRING);
+        writeCoded((String) value);
+      } else if (value instanceof Boolean) {
+        write((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        write(INT);
+        writeVarLong(zigZag((Integer) value));
+      } else if (value instanceof Long) {
+        write(LONG);
+        writeVarLong(zigZag((Long) value));
+      } else if (value instanceof Double) {
+        write(DOUBLE);
+        writeVarLong(Double.doubleToLongBits((Double) value));
+      } else {
+        write(DECIMAL);
+        writeString(((BigDecimal) value).toString());
+      }
+    }
+
+    private long zigZag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+  }
+
+  private final class Input {
+    private final ByteBuffer buffer;
+
+    Input(byte[] data) {
+      this.buffer = ByteBuffer.wrap(data);
+    }
+
+    long readVarLong() {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.get();
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    String readString() {
+      int length = (int) readVarLong();
+      String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+          StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+      return value;
+    }
+
+    String readCoded() throws IOException {
+      int code = (int) readVarLong();
+      if (code == 0) {
+        return readString();
+      }
+      if (code > dictionary.size()) {
+        throw new IOException("Unknown dictionary code " + code);
+      }
+      return dictionary.get(code - 1);
+    }
+
+    Object readValue() throws IOException {
+      int tag = buffer.get();
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          return readCoded();
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case INT:
+          return (int) unZigZag(readVarLong());
+        case LONG:
+          return unZigZag(readVarLong());
+        case DOUBLE:
+          return Double.longBitsToDouble(readVarLong());
+        case DECIMAL:
+          return new BigDecimal(readString());
+        default:
+          throw new IOException("Unknown value tag " + tag);
+      }
+    }
+
+    private long unZigZag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+
+}
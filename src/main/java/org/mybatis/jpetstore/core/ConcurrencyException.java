@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+/**
+ * Thrown when an append is rejected because the stream has moved past the revision the writer loaded.
+ */
+public class ConcurrencyException extends RuntimeException {
+
+  private static final long serialVersionUID = -3129021870542467113L;
+
+  private final String streamId;
+  private final long expectedVersion;
+
+  public ConcurrencyException(String streamId, long expectedVersion, Throwable cause) {
+    super("Stream " + streamId + " is no longer at expected version " + expectedVersion, cause);
+    this.streamId = streamId;
+    this.expectedVersion = expectedVersion;
+  }
+
+  public String getStreamId() {
+    return streamId;
+  }
+
+  public long getExpectedVersion() {
+    return expectedVersion;
+  }
+
+}
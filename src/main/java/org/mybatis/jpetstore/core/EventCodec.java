@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.io.IOException;
+
+import org.mybatis.jpetstore.core.event.DomainEvent;
+
+/**
+ * Converts events and snapshots to and from the bytes kept by an {@link EventStore}.
+ * <p>
+ * Implementations are thread-safe and name event types through an {@link EventTypeRegistry}.
+ */
+public interface EventCodec {
+
+  /**
+   * Gets the name an event is recorded under.
+   *
+   * @param event
+   *          the event
+   *
+   * @return the type name
+   *
+   * @throws UnknownEventTypeException
+   *           if the event class is not registered
+   */
+  String typeName(DomainEvent event);
+
+  byte[] encode(DomainEvent event) throws IOException;
+
+  /**
+   * Decodes an event whose type is recorded in the payload itself.
+   *
+   * @param data
+   *          the payload
+   *
+   * @return the event, or null if its type is unknown and unknown types are ignored
+   *
+   * @throws UnknownEventTypeException
+   *           if its type is unknown and unknown types are not ignored
+   */
+  DomainEvent decode(byte[] data) throws IOException;
+
+  /**
+   * Decodes an event whose type is already known from the store metadata.
+   *
+   * @param eventType
+   *          the type name
+   * @param data
+   *          the payload
+   *
+   * @return the event, or null if its type is unknown and unknown types are ignored
+   *
+   * @throws UnknownEventTypeException
+   *           if its type is unknown and unknown types are not ignored
+   */
+  DomainEvent decode(String eventType, byte[] data) throws IOException;
+
+  byte[] encodeSnapshot(Snapshot snapshot) throws IOException;
+
+  Snapshot decodeSnapshot(byte[] data) throws IOException;
+
+  /**
+   * Tells whether an encoded event is JSON, so stores that record a content type can label it. A codec may write some
+   * events as JSON and others not.
+   *
+   * @param data
+   *          the payload returned by {@link #encode(DomainEvent)}
+   *
+   * @return true for JSON, false for binary
+   */
+  boolean isJson(byte[] data);
+
+}
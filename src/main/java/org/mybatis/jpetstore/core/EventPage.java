@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.util.List;
+
+import org.mybatis.jpetstore.core.event.DomainEvent;
+
+/**
+ * A page of events read from every stream, with the position to read the next page from.
+ */
+public class EventPage {
+  private final List<DomainEvent> events;
+  private final long position;
+
+  public EventPage(List<DomainEvent> events, long position) {
+    this.events = events;
+    this.position = position;
+  }
+
+  public List<DomainEvent> getEvents() {
+    return events;
+  }
+
+  /**
+   * Gets the position following the last event of the page. It can move past positions that only held events the store
+   * does not hand out, so a page can be empty and still make progress.
+   *
+   * @return the position
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  @Override
+  public String toString() {
+    return "EventPage{" + "events=" + events.size() + ", position=" + position + '}';
+  }
+
+}
@@ -15,102 +15,220 @@
  */
 package org.mybatis.jpetstore.core;
 
-import com.eventstore.dbclient.*;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
 
-import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
 import org.mybatis.jpetstore.core.event.DomainEvent;
-import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
 
-public class EventStore {
-  private EventStoreDBClient client;
+/**
+ * Append-only storage of domain events, organised in streams.
+ * <p>
+ * Revisions within a stream start at 0; {@link #getAllStream()} returns the events of every stream in the order they
+ * were appended.
+ * <p>
+ * The asynchronous methods do not block the caller on remote I/O. Their default implementations, used by the local
+ * stores, simply run the blocking variant and return a completed future.
+ */
+public interface EventStore {
+  /**
+   * The expected version of a stream that has not been written yet.
+   */
+  long NO_STREAM = -1L;
 
-  public EventStore(String connectionString) {
-    EventStoreDBClientSettings settings = null;
-    try {
-      settings = EventStoreDBConnectionString.parse(connectionString);
-      client = EventStoreDBClient.create(settings);
-    } catch (ConnectionStringParsingException e) {
-      throw new RuntimeException(e);
-    }
-  }
+  /**
+   * The number of events fetched per page by the streaming reads when the caller has no better figure.
+   */
+  int DEFAULT_PAGE_SIZE = 500;
 
-  public String appendToStream(String streamId, DomainEvent e) throws ExecutionException, InterruptedException {
-    EventData eventData = EventData.builderAsJson(e.getClass().getName(), e).build();
-    client.appendToStream(streamId, eventData).get();
-    return streamId;
-  }
+  /**
+   * The position of {@code $all} before its first event.
+   */
+  long START_POSITION = 0L;
 
-  public List<DomainEvent> getAllStream() {
-    List<DomainEvent> results = new ArrayList<>();
+  String appendToStream(String streamId, DomainEvent e) throws ExecutionException, InterruptedException;
+
+  /**
+   * Appends all the given events to the stream in a single write, so they are committed atomically with one round-trip
+   * instead of one per event.
+   *
+   * @param streamId
+   *          the stream id
+   * @param events
+   *          the events to append, in order
+   *
+   * @return the stream id
+   */
+  String appendToStream(String streamId, List<DomainEvent> events) throws ExecutionException, InterruptedException;
+
+  /**
+   * Appends all the given events to the stream in a single write, provided the stream is still at the expected
+   * revision.
+   *
+   * @param streamId
+   *          the stream id
+   * @param expectedVersion
+   *          the revision of the last event the caller has seen, or {@link #NO_STREAM} if the stream must not exist yet
+   * @param events
+   *          the events to append, in order
+   *
+   * @return the revision of the stream after the append
+   *
+   * @throws ConcurrencyException
+   *           if another writer appended to the stream since {@code expectedVersion}
+   */
+  long appendToStream(String streamId, long expectedVersion, List<DomainEvent> events)
+      throws ExecutionException, InterruptedException;
+
+  /**
+   * Asynchronous variant of {@link #appendToStream(String, long, List)}.
+   *
+   * @param streamId
+   *          the stream id
+   * @param expectedVersion
+   *          the revision of the last event the caller has seen, or {@link #NO_STREAM} if the stream must not exist yet
+   * @param events
+   *          the events to append, in order
+   *
+   * @return the revision of the stream after the append, or a future failed with a {@link ConcurrencyException} if
+   *         another writer appended to the stream since {@code expectedVersion}
+   */
+  default CompletableFuture<Long> appendToStreamAsync(String streamId, long expectedVersion, List<DomainEvent> events) {
     try {
-      ReadAllOptions options = ReadAllOptions.get().forwards().fromStart();
-      List<ResolvedEvent> events = client.readAll(options).get().getEvents();
-      ObjectMapper mapper = new ObjectMapper();
-      for (ResolvedEvent event : events) {
-        if (event.getEvent().getEventType().startsWith("$")) {
-          continue;
-        }
-        results.add(deserialize(mapper.readValue(event.getOriginalEvent().getEventData(), LinkedHashMap.class)));
-      }
+      return CompletableFuture.completedFuture(appendToStream(streamId, expectedVersion, events));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Futures.failed(e);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Futures.failed(e);
     }
-    return results;
   }
 
-  public List<DomainEvent> getStream(String streamId) {
-    List<DomainEvent> results = new ArrayList<>();
+  List<DomainEvent> getAllStream();
 
-    try {
-      ReadStreamOptions options = ReadStreamOptions.get().forwards().fromStart();
-      List<ResolvedEvent> events = client.readStream(streamId, options).get().getEvents();
-      for (ResolvedEvent event : events) {
-        ObjectMapper mapper = new ObjectMapper();
-        results.add(deserialize(mapper.readValue(event.getOriginalEvent().getEventData(), LinkedHashMap.class)));
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    return results;
+  /**
+   * Reads the events of every stream in the order they were appended, fetching them lazily in pages so that folding
+   * over the whole store does not hold it in memory.
+   *
+   * @param maxCount
+   *          the number of events fetched per page
+   *
+   * @return the events
+   */
+  Stream<DomainEvent> readAll(int maxCount);
+
+  /**
+   * Reads one page of the events of every stream appended after the given position, in the order they were appended.
+   * <p>
+   * Positions are opaque to the caller but only ever grow, so the position of a page can be stored as a checkpoint and
+   * handed back later to resume where the reader stopped.
+   *
+   * @param position
+   *          the position returned with the previous page, or {@link #START_POSITION}
+   * @param maxCount
+   *          the maximum number of events read
+   *
+   * @return the events, and the position to read the next page from; the same position when there is nothing new
+   */
+  EventPage readAllAfter(long position, int maxCount);
+
+  /**
+   * Gets the position {@link #readAllAfter(long, int)} returns once it has read everything, so a reader can tell how
+   * far behind it is.
+   *
+   * @return the position following the last event appended
+   */
+  long lastPosition();
+
+  /**
+   * Measures how much of the log lies between two positions returned by {@link #readAllAfter(long, int)} or
+   * {@link #lastPosition()}, in the unit of the store: events for the in-memory store, bytes of the log for the others.
+   * By default it is the difference of the positions.
+   *
+   * @param from
+   *          the earlier position
+   * @param to
+   *          the later position
+   *
+   * @return the distance, or 0 if {@code to} is not past {@code from}
+   */
+  default long distance(long from, long to) {
+    return Math.max(to - from, 0);
   }
 
-  public List<DomainEvent> getStream(String streamId, long version) {
-    List<DomainEvent> results = new ArrayList<>();
+  /**
+   * Reads the events of the stream recorded after the given version, oldest first, fetching them lazily in pages.
+   *
+   * @param streamId
+   *          the stream id
+   * @param version
+   *          the revision of the last event already applied, or {@link #NO_STREAM} to read from the start
+   * @param maxCount
+   *          the number of events fetched per page
+   *
+   * @return the events
+   */
+  Stream<DomainEvent> readStream(String streamId, long version, int maxCount);
 
+  List<DomainEvent> getStream(String streamId);
+
+  /**
+   * Gets the events of the stream recorded after the given version, oldest first.
+   *
+   * @param streamId
+   *          the stream id
+   * @param version
+   *          the revision of the last event already applied, or {@link #NO_STREAM} to read from the start
+   *
+   * @return the events
+   */
+  List<DomainEvent> getStreamAfter(String streamId, long version);
+
+  /**
+   * Asynchronous variant of {@link #getStreamAfter(String, long)}.
+   *
+   * @param streamId
+   *          the stream id
+   * @param version
+   *          the revision of the last event already applied, or {@link #NO_STREAM} to read from the start
+   *
+   * @return the events
+   */
+  default CompletableFuture<List<DomainEvent>> readStreamAsync(String streamId, long version) {
     try {
-      ReadStreamOptions options = ReadStreamOptions.get().fromRevision(version).backwards();
-      List<ResolvedEvent> events = client.readStream(streamId, options).get().getEvents();
-      for (ResolvedEvent event : events) {
-        ObjectMapper mapper = new ObjectMapper();
-        results.add(deserialize(mapper.readValue(event.getOriginalEvent().getEventData(), LinkedHashMap.class)));
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
+      return CompletableFuture.completedFuture(getStreamAfter(streamId, version));
+    } catch (RuntimeException e) {
+      return Futures.failed(e);
     }
-
-    return results;
   }
 
-  public static DomainEvent deserialize(Map map) {
-    String eventType = (String) map.get("eventType");
-    DomainEvent result = null;
-    if ("org.mybatis.jpetstore.core.event.EntityCreatedEvent".equals(eventType)) {
-      result = new EntityCreatedEvent((String) map.get("streamId"), (String) map.get("entityType"),
-          (long) map.get("timestamp"));
-    } else if ("org.mybatis.jpetstore.core.event.AttributeUpdatedEvent".equals(eventType)) {
-      AttributeUpdatedEvent event = new AttributeUpdatedEvent((String) map.get("streamId"),
-          (String) map.get("entityType"), (long) map.get("timestamp"));
-      event.setName((String) map.get("name"));
-      event.setValue(map.get("value"));
-      result = event;
+  void saveSnapshot(Snapshot snapshot) throws ExecutionException, InterruptedException;
+
+  /**
+   * Gets the most recent snapshot taken of the stream.
+   *
+   * @param streamId
+   *          the stream id
+   *
+   * @return the snapshot, or null if none was taken yet
+   */
+  Snapshot getSnapshot(String streamId);
+
+  /**
+   * Asynchronous variant of {@link #getSnapshot(String)}.
+   *
+   * @param streamId
+   *          the stream id
+   *
+   * @return the snapshot, or null if none was taken yet
+   */
+  default CompletableFuture<Snapshot> getSnapshotAsync(String streamId) {
+    try {
+      return CompletableFuture.completedFuture(getSnapshot(streamId));
+    } catch (RuntimeException e) {
+      return Futures.failed(e);
     }
-    return result;
   }
+
 }
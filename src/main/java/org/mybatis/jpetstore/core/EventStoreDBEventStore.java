@@ -0,0 +1,405 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import com.eventstore.dbclient.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link EventStore} backed by an EventStoreDB server.
+ */
+public class EventStoreDBEventStore implements EventStore {
+  private static final Logger log = LoggerFactory.getLogger(EventStoreDBEventStore.class);
+  private static final String SNAPSHOT_STREAM_PREFIX = "snapshot-";
+
+  private final EventCodec codec;
+  private EventStoreDBClient client;
+
+  public EventStoreDBEventStore(String connectionString) {
+    this(connectionString, new JsonEventCodec());
+  }
+
+  public EventStoreDBEventStore(String connectionString, EventCodec codec) {
+    this.codec = codec;
+    EventStoreDBClientSettings settings = null;
+    try {
+      settings = EventStoreDBConnectionString.parse(connectionString);
+      client = EventStoreDBClient.create(settings);
+    } catch (ConnectionStringParsingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String appendToStream(String streamId, DomainEvent e) throws ExecutionException, InterruptedException {
+    client.appendToStream(streamId, toEventData(e)).get();
+    return streamId;
+  }
+
+  @Override
+  public String appendToStream(String streamId, List<DomainEvent> events)
+      throws ExecutionException, InterruptedException {
+    if (events.isEmpty()) {
+      return streamId;
+    }
+    List<EventData> eventDataList = new ArrayList<>(events.size());
+    for (DomainEvent e : events) {
+      eventDataList.add(toEventData(e));
+    }
+    client.appendToStream(streamId, eventDataList.iterator()).get();
+    return streamId;
+  }
+
+  @Override
+  public long appendToStream(String streamId, long expectedVersion, List<DomainEvent> events)
+      throws ExecutionException, InterruptedException {
+    try {
+      return appendToStreamAsync(streamId, expectedVersion, events).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ConcurrencyException) {
+        throw (ConcurrencyException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public CompletableFuture<Long> appendToStreamAsync(String streamId, long expectedVersion, List<DomainEvent> events) {
+    if (events.isEmpty()) {
+      return CompletableFuture.completedFuture(expectedVersion);
+    }
+    List<EventData> eventDataList = new ArrayList<>(events.size());
+    for (DomainEvent e : events) {
+      eventDataList.add(toEventData(e));
+    }
+    ExpectedRevision expectedRevision = expectedVersion == NO_STREAM ? ExpectedRevision.noStream()
+        : ExpectedRevision.expectedRevision(expectedVersion);
+    AppendToStreamOptions options = AppendToStreamOptions.get().expectedRevision(expectedRevision);
+    return client.appendToStream(streamId, options, eventDataList.iterator()).handle((result, error) -> {
+      if (error == null) {
+        return expectedVersion + events.size();
+      }
+      Throwable cause = Futures.unwrap(error);
+      if (cause instanceof WrongExpectedVersionException) {
+        throw new ConcurrencyException(streamId, expectedVersion, cause);
+      }
+      throw new CompletionException(cause);
+    });
+  }
+
+  private EventData toEventData(DomainEvent e) {
+    try {
+      String eventType = codec.typeName(e);
+      byte[] data = codec.encode(e);
+      return (codec.isJson(data) ? EventDataBuilder.json(eventType, data) : EventDataBuilder.binary(eventType, data))
+          .build();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private void addEvent(List<DomainEvent> results, RecordedEvent event) throws IOException {
+    DomainEvent decoded = codec.decode(event.getEventType(), event.getEventData());
+    if (decoded != null) {
+      decoded.setRevision(event.getRevision());
+      results.add(decoded);
+    }
+  }
+
+  /**
+   * Tells whether an event read from {@code $all} belongs to the server or to a snapshot stream rather than to an
+   * aggregate.
+   */
+  private static boolean isInternal(RecordedEvent event) {
+    return event.getEventType().startsWith("$") || event.getStreamId().startsWith(SNAPSHOT_STREAM_PREFIX);
+  }
+
+  @Override
+  public List<DomainEvent> getAllStream() {
+    List<DomainEvent> results = new ArrayList<>();
+    try {
+      ReadAllOptions options = ReadAllOptions.get().forwards().fromStart();
+      List<ResolvedEvent> events = client.readAll(options).get().getEvents();
+      for (ResolvedEvent event : events) {
+        if (isInternal(event.getOriginalEvent())) {
+          continue;
+        }
+        addEvent(results, event.getOriginalEvent());
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Read of $all failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Read of $all interrupted", e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return results;
+  }
+
+  @Override
+  public Stream<DomainEvent> readAll(int maxCount) {
+    return new PagedIterator<DomainEvent>() {
+      private Position position;
+      private boolean last;
+
+      @Override
+      protected List<DomainEvent> fetch() {
+        if (last) {
+          return null;
+        }
+        // reading forwards from a position includes the event at it, which ended the previous page
+        long count = position == null ? maxCount : maxCount + 1L;
+        ReadAllOptions options = ReadAllOptions.get().forwards().maxCount(count);
+        options = position == null ? options.fromStart() : options.fromPosition(position);
+        try {
+          List<ResolvedEvent> events = client.readAll(options).get().getEvents();
+          List<DomainEvent> page = new ArrayList<>(events.size());
+          for (ResolvedEvent event : events) {
+            RecordedEvent recorded = event.getOriginalEvent();
+            if (recorded.getPosition().equals(position) || isInternal(recorded)) {
+              continue;
+            }
+            addEvent(page, recorded);
+          }
+          last = events.size() < count;
+          if (!events.isEmpty()) {
+            position = events.get(events.size() - 1).getOriginalEvent().getPosition();
+          }
+          return page;
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }.stream();
+  }
+
+  /**
+   * The position is the commit position of the last event read. Each event written through the gRPC API has its own
+   * commit position, equal to its prepare position, so it identifies the event on its own.
+   */
+  @Override
+  public EventPage readAllAfter(long position, int maxCount) {
+    // reading forwards from a position includes the event at it, which was the last one of the previous page
+    long count = position == START_POSITION ? maxCount : maxCount + 1L;
+    ReadAllOptions options = ReadAllOptions.get().forwards().maxCount(count);
+    options = position == START_POSITION ? options.fromStart() : options.fromPosition(new Position(position, position));
+    try {
+      List<DomainEvent> page = new ArrayList<>();
+      long next = position;
+      for (ResolvedEvent event : client.readAll(options).get().getEvents()) {
+        RecordedEvent recorded = event.getOriginalEvent();
+        long commitPosition = recorded.getPosition().getCommitUnsigned();
+        if (position != START_POSITION && commitPosition <= position) {
+          continue;
+        }
+        next = commitPosition;
+        if (!isInternal(recorded)) {
+          addEvent(page, recorded);
+        }
+      }
+      return new EventPage(page, next);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public long lastPosition() {
+    ReadAllOptions options = ReadAllOptions.get().backwards().fromEnd().maxCount(1);
+    try {
+      List<ResolvedEvent> events = client.readAll(options).get().getEvents();
+      return events.isEmpty() ? START_POSITION : events.get(0).getOriginalEvent().getPosition().getCommitUnsigned();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public Stream<DomainEvent> readStream(String streamId, long version, int maxCount) {
+    return new PagedIterator<DomainEvent>() {
+      private long revision = Math.max(version + 1, 0);
+      private boolean last;
+
+      @Override
+      protected List<DomainEvent> fetch() {
+        if (last) {
+          return null;
+        }
+        ReadStreamOptions options = ReadStreamOptions.get().forwards().fromRevision(revision).maxCount(maxCount);
+        try {
+          List<ResolvedEvent> events = client.readStream(streamId, options).get().getEvents();
+          List<DomainEvent> page = new ArrayList<>(events.size());
+          for (ResolvedEvent event : events) {
+            addEvent(page, event.getOriginalEvent());
+          }
+          last = events.size() < maxCount;
+          revision += events.size();
+          return page;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof StreamNotFoundException) {
+            return null;
+          }
+          throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }.stream();
+  }
+
+  @Override
+  public List<DomainEvent> getStream(String streamId) {
+    return decode(read(streamId, ReadStreamOptions.get().forwards().fromStart()));
+  }
+
+  @Override
+  public List<DomainEvent> getStreamAfter(String streamId, long version) {
+    return decode(read(streamId, ReadStreamOptions.get().forwards().fromRevision(version + 1)));
+  }
+
+  @Override
+  public CompletableFuture<List<DomainEvent>> readStreamAsync(String streamId, long version) {
+    ReadStreamOptions options = ReadStreamOptions.get().forwards().fromRevision(version + 1);
+    return client.readStream(streamId, options).handle((result, error) -> {
+      if (error != null) {
+        Throwable cause = Futures.unwrap(error);
+        if (cause instanceof StreamNotFoundException) {
+          return new ArrayList<>();
+        }
+        throw new CompletionException(cause);
+      }
+      List<DomainEvent> results = new ArrayList<>();
+      try {
+        for (ResolvedEvent event : result.getEvents()) {
+          addEvent(results, event.getOriginalEvent());
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return results;
+    });
+  }
+
+  @Override
+  public void saveSnapshot(Snapshot snapshot) throws ExecutionException, InterruptedException {
+    EventData eventData;
+    try {
+      eventData = EventDataBuilder.json(Snapshot.class.getName(), codec.encodeSnapshot(snapshot)).build();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    client.appendToStream(SNAPSHOT_STREAM_PREFIX + snapshot.getStreamId(), eventData).get();
+  }
+
+  @Override
+  public Snapshot getSnapshot(String streamId) {
+    ReadStreamOptions options = ReadStreamOptions.get().backwards().fromEnd().maxCount(1);
+    List<ResolvedEvent> events = read(SNAPSHOT_STREAM_PREFIX + streamId, options);
+    try {
+      return events.isEmpty() ? null : codec.decodeSnapshot(events.get(0).getOriginalEvent().getEventData());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Snapshot> getSnapshotAsync(String streamId) {
+    ReadStreamOptions options = ReadStreamOptions.get().backwards().fromEnd().maxCount(1);
+    return client.readStream(SNAPSHOT_STREAM_PREFIX + streamId, options).handle((result, error) -> {
+      if (error != null) {
+        Throwable cause = Futures.unwrap(error);
+        if (cause instanceof StreamNotFoundException) {
+          return null;
+        }
+        throw new CompletionException(cause);
+      }
+      List<ResolvedEvent> events = result.getEvents();
+      try {
+        return events.isEmpty() ? null : codec.decodeSnapshot(events.get(0).getOriginalEvent().getEventData());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Reads a stream, a stream that was never written being empty. Any other failure is propagated, so a store outage is
+   * not mistaken for an empty stream.
+   */
+  private List<ResolvedEvent> read(String streamId, ReadStreamOptions options) {
+    try {
+      return client.readStream(streamId, options).get().getEvents();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof StreamNotFoundException) {
+        log.debug("Stream {} not found, reading it as empty", streamId);
+        return new ArrayList<>();
+      }
+      throw new RuntimeException("Read of stream " + streamId + " failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Read of stream " + streamId + " interrupted", e);
+    }
+  }
+
+  private List<DomainEvent> decode(List<ResolvedEvent> events) {
+    List<DomainEvent> results = new ArrayList<>(events.size());
+    try {
+      for (ResolvedEvent event : events) {
+        addEvent(results, event.getOriginalEvent());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return results;
+  }
+
+  /**
+   * Shuts down the client connection.
+   */
+  public void shutdown() throws ExecutionException, InterruptedException {
+    client.shutdown();
+  }
+
+}
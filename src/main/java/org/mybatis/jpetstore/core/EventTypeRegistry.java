@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+import org.mybatis.jpetstore.core.event.ItemAddedEvent;
+import org.mybatis.jpetstore.core.event.ItemRemovedEvent;
+import org.mybatis.jpetstore.core.event.QuantityChangedEvent;
+
+/**
+ * Maps the event classes to the short, versioned type names recorded in the store, such as {@code AttributeUpdated.v1}.
+ * <p>
+ * Types are registered at startup, each with one canonical name that is written and any number of aliases that are
+ * still accepted when reading, so events recorded under an older name keep replaying. Lookups in both directions are
+ * single hash map reads.
+ */
+public class EventTypeRegistry {
+  private final Map<String, Class<? extends DomainEvent>> typesByName = new ConcurrentHashMap<>();
+  private final Map<Class<? extends DomainEvent>, String> namesByType = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a registry holding the event types of this application. The types recorded before the registry existed,
+   * entity creations and single attribute updates, have their fully qualified class names as aliases.
+   *
+   * @return the registry
+   */
+  public static EventTypeRegistry defaults() {
+    return new EventTypeRegistry()
+        .register("EntityCreated.v1", EntityCreatedEvent.class, EntityCreatedEvent.class.getName())
+        .register("AttributeUpdated.v1", AttributeUpdatedEvent.class, AttributeUpdatedEvent.class.getName())
+        .register("AttributesUpdated.v1", AttributesUpdatedEvent.class).register("ItemAdded.v1", ItemAddedEvent.class)
+        .register("QuantityChanged.v1", QuantityChangedEvent.class).register("ItemRemoved.v1", ItemRemovedEvent.class);
+  }
+
+  /**
+   * Registers an event type.
+   *
+   * @param name
+   *          the name written to the store
+   * @param type
+   *          the event class
+   * @param aliases
+   *          other names the type may have been recorded under
+   *
+   * @return this registry
+   *
+   * @throws IllegalArgumentException
+   *           if the class or one of the names is already registered
+   */
+  public synchronized EventTypeRegistry register(String name, Class<? extends DomainEvent> type, String... aliases) {
+    if (namesByType.containsKey(type)) {
+      throw new IllegalArgumentException("Event type " + type.getName() + " is already registered");
+    }
+    List<String> names = new ArrayList<>();
+    names.add(name);
+    names.addAll(Arrays.asList(aliases));
+    for (String n : names) {
+      Class<? extends DomainEvent> previous = typesByName.get(n);
+      if (previous != null) {
+        throw new IllegalArgumentException("Event type name " + n + " is already used by " + previous.getName());
+      }
+    }
+    names.forEach(n -> typesByName.put(n, type));
+    namesByType.put(type, name);
+    return this;
+  }
+
+  /**
+   * Gets the name an event class is written under.
+   *
+   * @param type
+   *          the event class
+   *
+   * @return the name
+   *
+   * @throws UnknownEventTypeException
+   *           if the class is not registered
+   */
+  public String nameOf(Class<?> type) {
+    String name = namesByType.get(type);
+    if (name == null) {
+      throw new UnknownEventTypeException(type.getName());
+    }
+    return name;
+  }
+
+  /**
+   * Gets the event class recorded under a name or one of its aliases.
+   *
+   * @param name
+   *          the name
+   *
+   * @return the event class, or null if the name is unknown
+   */
+  public Class<? extends DomainEvent> typeOf(String name) {
+    return name == null ? null : typesByName.get(name);
+  }
+
+  public Set<String> names() {
+    return Collections.unmodifiableSet(typesByName.keySet());
+  }
+
+}
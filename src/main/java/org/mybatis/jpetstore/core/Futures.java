@@ -0,0 +1,89 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers for the asynchronous event store API.
+ */
+public final class Futures {
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "event-store-timeout");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private Futures() {
+  }
+
+  public static <T> CompletableFuture<T> failed(Throwable error) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(error);
+    return future;
+  }
+
+  /**
+   * Gets a future completed like the given one, or failed with a {@link TimeoutException} if it does not complete in
+   * time.
+   *
+   * @param future
+   *          the future
+   * @param timeout
+   *          the time to wait
+   * @param unit
+   *          the unit of the timeout
+   *
+   * @return the future with a timeout
+   */
+  public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    ScheduledFuture<?> timer = TIMER
+        .schedule(
+            () -> result.completeExceptionally(new TimeoutException(
+                "No answer from the event store after " + timeout + " " + unit.toString().toLowerCase())),
+            timeout, unit);
+    future.whenComplete((value, error) -> {
+      timer.cancel(false);
+      if (error == null) {
+        result.complete(value);
+      } else {
+        result.completeExceptionally(unwrap(error));
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Gets the exception a completion stage failed with, without the {@link CompletionException} wrapper added by
+   * dependent stages.
+   *
+   * @param error
+   *          the error passed to the stage
+   *
+   * @return the original error
+   */
+  public static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.mybatis.jpetstore.core.event.DomainEvent;
+
+/**
+ * {@link EventStore} keeping every stream in memory, for tests and single node deployments that do not need the events
+ * to outlive the process.
+ * <p>
+ * Each stream is an array of its events indexed by revision, and a global log keeps all events in append order. Appends
+ * are serialized so both always agree; reads run concurrently and return copies.
+ */
+public class InMemoryEventStore implements EventStore {
+  private final Map<String, List<DomainEvent>> streams = new HashMap<>();
+  private final List<DomainEvent> log = new ArrayList<>();
+  private final Map<String, Snapshot> snapshots = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  @Override
+  public String appendToStream(String streamId, DomainEvent e) {
+    return appendToStream(streamId, Collections.singletonList(e));
+  }
+
+  @Override
+  public String appendToStream(String streamId, List<DomainEvent> events) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      append(streamId, events);
+    } finally {
+      writeLock.unlock();
+    }
+    return streamId;
+  }
+
+  @Override
+  public long appendToStream(String streamId, long expectedVersion, List<DomainEvent> events) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      List<DomainEvent> stream = streams.get(streamId);
+      long version = stream == null ? NO_STREAM : stream.size() - 1;
+      if (version != expectedVersion) {
+        throw new ConcurrencyException(streamId, expectedVersion, null);
+      }
+      append(streamId, events);
+      return version + events.size();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void append(String streamId, List<DomainEvent> events) {
+    if (events.isEmpty()) {
+      return;
+    }
+    List<DomainEvent> stream = streams.computeIfAbsent(streamId, k -> new ArrayList<>());
+    for (DomainEvent event : events) {
+      // the events are kept as given, so they carry their revision as read back
+      event.setRevision(stream.size());
+      stream.add(event);
+    }
+    log.addAll(events);
+  }
+
+  @Override
+  public List<DomainEvent> getAllStream() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return new ArrayList<>(log);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Stream<DomainEvent> readAll(int maxCount) {
+    return new PagedIterator<DomainEvent>() {
+      private long position = START_POSITION;
+
+      @Override
+      protected List<DomainEvent> fetch() {
+        EventPage page = readAllAfter(position, maxCount);
+        position = page.getPosition();
+        return page.getEvents().isEmpty() ? null : page.getEvents();
+      }
+    }.stream();
+  }
+
+  /**
+   * The position is the number of events in the global log read so far.
+   */
+  @Override
+  public EventPage readAllAfter(long position, int maxCount) {
+    List<DomainEvent> page = page(null, (int) position, maxCount);
+    return new EventPage(page, position + page.size());
+  }
+
+  @Override
+  public Stream<DomainEvent> readStream(String streamId, long version, int maxCount) {
+    return new PagedIterator<DomainEvent>() {
+      private int from = (int) Math.max(version + 1, 0);
+
+      @Override
+      protected List<DomainEvent> fetch() {
+        List<DomainEvent> page = page(streamId, from, maxCount);
+        from += page.size();
+        return page.isEmpty() ? null : page;
+      }
+    }.stream();
+  }
+
+  @Override
+  public long lastPosition() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return log.size();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  private List<DomainEvent> page(String streamId, int from, int maxCount) {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      List<DomainEvent> events = streamId == null ? log : streams.getOrDefault(streamId, Collections.emptyList());
+      int to = Math.min(from + maxCount, events.size());
+      return from >= to ? Collections.emptyList() : new ArrayList<>(events.subList(from, to));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public List<DomainEvent> getStream(String streamId) {
+    return getStreamAfter(streamId, NO_STREAM);
+  }
+
+  @Override
+  public List<DomainEvent> getStreamAfter(String streamId, long version) {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      List<DomainEvent> stream = streams.getOrDefault(streamId, Collections.emptyList());
+      int from = (int) Math.min(Math.max(version + 1, 0), stream.size());
+      return new ArrayList<>(stream.subList(from, stream.size()));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public void saveSnapshot(Snapshot snapshot) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      snapshots.put(snapshot.getStreamId(), snapshot);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public Snapshot getSnapshot(String streamId) {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return snapshots.get(streamId);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DatabindContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.databind.jsontype.impl.TypeIdResolverBase;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link EventCodec} writing events and snapshots as JSON.
+ * <p>
+ * One configured {@link ObjectMapper} is shared by all stores, and the readers and writers derived from it are built
+ * once per type. They are immutable and thread-safe, so decoding an event binds straight into its class without any
+ * per-event mapper or intermediate map. The {@code eventType} property of the payload holds the name given to the class
+ * by the {@link EventTypeRegistry}.
+ */
+public class JsonEventCodec implements EventCodec {
+  private static final Logger log = LoggerFactory.getLogger(JsonEventCodec.class);
+
+  private final EventTypeRegistry registry;
+  private final ObjectMapper mapper;
+  private final ObjectReader eventReader;
+  private final ObjectWriter eventWriter;
+  private final ObjectReader snapshotReader;
+  private final ObjectWriter snapshotWriter;
+  private final Map<Class<?>, ObjectReader> readersByType = new ConcurrentHashMap<>();
+  private boolean ignoreUnknownTypes;
+
+  public JsonEventCodec() {
+    this(EventTypeRegistry.defaults());
+  }
+
+  public JsonEventCodec(EventTypeRegistry registry) {
+    this.registry = registry;
+    this.mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .setDefaultTyping(new EventTypeResolverBuilder(registry)).addMixIn(DomainEvent.class, DomainEventMixIn.class);
+    this.eventReader = mapper.readerFor(DomainEvent.class);
+    this.eventWriter = mapper.writerFor(DomainEvent.class);
+    this.snapshotReader = mapper.readerFor(Snapshot.class);
+    this.snapshotWriter = mapper.writerFor(Snapshot.class);
+  }
+
+  /**
+   * Sets whether events of a type missing from the registry are skipped, with a warning, instead of failing the read.
+   *
+   * @param ignoreUnknownTypes
+   *          true to skip them
+   */
+  public void setIgnoreUnknownTypes(boolean ignoreUnknownTypes) {
+    this.ignoreUnknownTypes = ignoreUnknownTypes;
+  }
+
+  @Override
+  public String typeName(DomainEvent event) {
+    return registry.nameOf(event.getClass());
+  }
+
+  @Override
+  public byte[] encode(DomainEvent event) throws IOException {
+    registry.nameOf(event.getClass());
+    return eventWriter.writeValueAsBytes(event);
+  }
+
+  @Override
+  public DomainEvent decode(byte[] data) throws IOException {
+    try {
+      return eventReader.readValue(data);
+    } catch (InvalidTypeIdException e) {
+      return unknown(e.getTypeId());
+    }
+  }
+
+  @Override
+  public DomainEvent decode(String eventType, byte[] data) throws IOException {
+    Class<? extends DomainEvent> type = registry.typeOf(eventType);
+    if (type == null) {
+      return unknown(eventType);
+    }
+    try {
+      return readersByType.computeIfAbsent(type, mapper::readerFor).readValue(data);
+    } catch (InvalidTypeIdException e) {
+      return unknown(e.getTypeId());
+    }
+  }
+
+  private DomainEvent unknown(String eventType) {
+    if (!ignoreUnknownTypes) {
+      throw new UnknownEventTypeException(eventType);
+    }
+    log.warn("Skipping event of unknown type {}", eventType);
+    return null;
+  }
+
+  @Override
+  public byte[] encodeSnapshot(Snapshot snapshot) throws IOException {
+    return snapshotWriter.writeValueAsBytes(snapshot);
+  }
+
+  @Override
+  public Snapshot decodeSnapshot(byte[] data) throws IOException {
+    return snapshotReader.readValue(data);
+  }
+
+  @Override
+  public boolean isJson(byte[] data) {
+    return true;
+  }
+
+  /**
+   * The type id is written by the type serializer, so the plain bean property is left out, as is the revision, which
+   * the store records next to the payload.
+   */
+  @JsonIgnoreProperties({ "eventType", "revision" })
+  private abstract static class DomainEventMixIn {
+  }
+
+  /**
+   * Applies registry based type ids to the event classes only.
+   */
+  private static final class EventTypeResolverBuilder extends ObjectMapper.DefaultTypeResolverBuilder {
+    private static final long serialVersionUID = 1L;
+
+    EventTypeResolverBuilder(EventTypeRegistry registry) {
+      super(ObjectMapper.DefaultTyping.NON_FINAL, LaissezFaireSubTypeValidator.instance);
+      init(JsonTypeInfo.Id.CUSTOM, new EventTypeIdResolver(registry));
+      inclusion(JsonTypeInfo.As.PROPERTY);
+      typeProperty("eventType");
+    }
+
+    @Override
+    public boolean useForType(JavaType t) {
+      return DomainEvent.class.isAssignableFrom(t.getRawClass());
+    }
+  }
+
+  private static final class EventTypeIdResolver extends TypeIdResolverBase {
+    private final EventTypeRegistry registry;
+
+    EventTypeIdResolver(EventTypeRegistry registry) {
+      super(TypeFactory.defaultInstance().constructType(DomainEvent.class), TypeFactory.defaultInstance());
+      this.registry = registry;
+    }
+
+    @Override
+    public String idFromValue(Object value) {
+      return registry.nameOf(value.getClass());
+    }
+
+    @Override
+    public String idFromValueAndType(Object value, Class<?> suggestedType) {
+      return registry.nameOf(value == null ? suggestedType : value.getClass());
+    }
+
+    @Override
+    public JavaType typeFromId(DatabindContext context, String id) {
+      Class<? extends DomainEvent> type = registry.typeOf(id);
+      return type == null ? null : context.constructType(type);
+    }
+
+    @Override
+    public String getDescForKnownTypeIds() {
+      return String.join(", ", registry.names());
+    }
+
+    @Override
+    public JsonTypeInfo.Id getMechanism() {
+      return JsonTypeInfo.Id.CUSTOM;
+    }
+  }
+
+}
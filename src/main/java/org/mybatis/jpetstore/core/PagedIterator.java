@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator over a read that is fetched lazily one page at a time, so only the current page is held in memory.
+ *
+ * @param <T>
+ *          the element type
+ */
+public abstract class PagedIterator<T> implements Iterator<T> {
+  private Iterator<T> page = Collections.emptyIterator();
+  private boolean done;
+
+  /**
+   * Fetches the page following the previous one.
+   *
+   * @return the elements of the page, possibly empty, or null once the end of the read was reached
+   */
+  protected abstract List<T> fetch();
+
+  @Override
+  public boolean hasNext() {
+    while (!page.hasNext() && !done) {
+      List<T> next = fetch();
+      if (next == null) {
+        done = true;
+      } else {
+        page = next.iterator();
+      }
+    }
+    return page.hasNext();
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return page.next();
+  }
+
+  /**
+   * Gets a sequential stream over the remaining elements.
+   *
+   * @return the stream
+   */
+  public Stream<T> stream() {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+        false);
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The state of an aggregate as of a given revision of its stream, so it can be rebuilt without replaying the events up
+ * to that revision.
+ */
+public class Snapshot {
+  private String streamId;
+  private long version;
+  private Map<String, Object> state = new LinkedHashMap<>();
+
+  public Snapshot() {
+  }
+
+  public Snapshot(String streamId, long version, Map<String, Object> state) {
+    this.streamId = streamId;
+    this.version = version;
+    this.state = state;
+  }
+
+  public String getStreamId() {
+    return streamId;
+  }
+
+  public void setStreamId(String streamId) {
+    this.streamId = streamId;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
+  public Map<String, Object> getState() {
+    return state;
+  }
+
+  public void setState(Map<String, Object> state) {
+    this.state = state;
+  }
+
+  @Override
+  public String toString() {
+    return "Snapshot{" + "streamId=" + streamId + ", version=" + version + '}';
+  }
+
+}
@@ -0,0 +1,37 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+/**
+ * Thrown when an event type name read from the store, or an event class being written, is not in the
+ * {@link EventTypeRegistry}.
+ */
+public class UnknownEventTypeException extends RuntimeException {
+
+  private static final long serialVersionUID = 4187362219405519034L;
+
+  private final String eventType;
+
+  public UnknownEventTypeException(String eventType) {
+    super("Unknown event type " + eventType);
+    this.eventType = eventType;
+  }
+
+  public String getEventType() {
+    return eventType;
+  }
+
+}
@@ -15,11 +15,16 @@
  */
 package org.mybatis.jpetstore.core.event;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class AttributeUpdatedEvent extends DomainEvent {
   private String name;
   private Object value;
 
-  public AttributeUpdatedEvent(String id, String entityType, long timestamp) {
+  @JsonCreator
+  public AttributeUpdatedEvent(@JsonProperty("streamId") String id, @JsonProperty("entityType") String entityType,
+      @JsonProperty("timestamp") long timestamp) {
     super(id, entityType, timestamp);
   }
 
@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Several attributes changed by one command, recorded as a single event instead of one {@link AttributeUpdatedEvent}
+ * per attribute.
+ */
+public class AttributesUpdatedEvent extends DomainEvent {
+  private Map<String, Object> attributes = new LinkedHashMap<>();
+
+  @JsonCreator
+  public AttributesUpdatedEvent(@JsonProperty("streamId") String id, @JsonProperty("entityType") String entityType,
+      @JsonProperty("timestamp") long timestamp) {
+    super(id, entityType, timestamp);
+  }
+
+  /**
+   * Gets the new values, keyed by attribute name in the order they were changed.
+   *
+   * @return the attributes
+   */
+  public Map<String, Object> getAttributes() {
+    return attributes;
+  }
+
+  public void setAttributes(Map<String, Object> attributes) {
+    this.attributes = attributes;
+  }
+
+  @Override
+  public String toString() {
+    return "AttributesUpdatedEvent{" + "entity=" + this.getEntityType() + ", timestamp=" + this.getTimestamp()
+        + ", attributes=" + this.getAttributes() + '}';
+  }
+
+}
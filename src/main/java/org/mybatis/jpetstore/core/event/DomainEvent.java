@@ -20,6 +20,7 @@ public abstract class DomainEvent {
   private String eventType;
   private long timestamp;
   private String streamId;
+  private long revision = -1;
 
   public DomainEvent(String streamId, String entityType, long timestamp) {
     this.entityType = entityType;
@@ -48,6 +49,20 @@ public abstract class DomainEvent {
     return timestamp;
   }
 
+  /**
+   * Gets the revision of the event in its stream, as set by the store it was read from. Events of unknown types may be
+   * skipped on read, so the revision of the last event read, rather than the number of events, tells where a stream is.
+   *
+   * @return the revision, or -1 if the store did not set it
+   */
+  public long getRevision() {
+    return revision;
+  }
+
+  public void setRevision(long revision) {
+    this.revision = revision;
+  }
+
   public java.lang.String toString() {
     return "DomainEvent{" + "entity=" + entityType + ", timestamp=" + timestamp + '}';
   }
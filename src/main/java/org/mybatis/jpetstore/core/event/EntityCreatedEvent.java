@@ -15,8 +15,13 @@
  */
 package org.mybatis.jpetstore.core.event;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class EntityCreatedEvent extends DomainEvent {
-  public EntityCreatedEvent(String id, String entityType, long timestamp) {
+  @JsonCreator
+  public EntityCreatedEvent(@JsonProperty("streamId") String id, @JsonProperty("entityType") String entityType,
+      @JsonProperty("timestamp") long timestamp) {
     super(id, entityType, timestamp);
   }
 }
@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * An item put in a cart for the first time, with a quantity of one. Only the item id and the price it was listed at are
+ * recorded; the rest of the item is the catalog's to describe.
+ */
+public class ItemAddedEvent extends DomainEvent {
+  private String itemId;
+  private BigDecimal unitPrice;
+  private boolean inStock;
+
+  @JsonCreator
+  public ItemAddedEvent(@JsonProperty("streamId") String id, @JsonProperty("entityType") String entityType,
+      @JsonProperty("timestamp") long timestamp) {
+    super(id, entityType, timestamp);
+  }
+
+  public String getItemId() {
+    return itemId;
+  }
+
+  public void setItemId(String itemId) {
+    this.itemId = itemId;
+  }
+
+  /**
+   * Gets the price the item was listed at when it was added, so the cart keeps showing the same price on replay.
+   *
+   * @return the unit price
+   */
+  public BigDecimal getUnitPrice() {
+    return unitPrice;
+  }
+
+  public void setUnitPrice(BigDecimal unitPrice) {
+    this.unitPrice = unitPrice;
+  }
+
+  public boolean isInStock() {
+    return inStock;
+  }
+
+  public void setInStock(boolean inStock) {
+    this.inStock = inStock;
+  }
+
+  /**
+   * Reads the whole catalog item that events recorded before the unit price was written used to carry.
+   */
+  @JsonProperty("item")
+  private void setItem(Map<String, Object> item) {
+    if (item != null) {
+      itemId = (String) item.get("itemId");
+      Object listPrice = item.get("listPrice");
+      unitPrice = listPrice == null ? null : new BigDecimal(listPrice.toString());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ItemAddedEvent{" + "entity=" + this.getEntityType() + ", timestamp=" + this.getTimestamp() + ", itemId="
+        + itemId + ", unitPrice=" + unitPrice + ", inStock=" + inStock + '}';
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The quantity of an item already in a cart set to a new value.
+ */
+public class QuantityChangedEvent extends DomainEvent {
+  private String itemId;
+  private int quantity;
+
+  @JsonCreator
+  public QuantityChangedEvent(@JsonProperty("streamId") String id, @JsonProperty("entityType") String entityType,
+      @JsonProperty("timestamp") long timestamp) {
+    super(id, entityType, timestamp);
+  }
+
+  public String getItemId() {
+    return itemId;
+  }
+
+  public void setItemId(String itemId) {
+    this.itemId = itemId;
+  }
+
+  /**
+   * Gets the new quantity. It replaces the previous one rather than adding to it, so replaying the event twice is
+   * harmless.
+   *
+   * @return the quantity
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  public void setQuantity(int quantity) {
+    this.quantity = quantity;
+  }
+
+  @Override
+  public String toString() {
+    return "QuantityChangedEvent{" + "entity=" + this.getEntityType() + ", timestamp=" + this.getTimestamp()
+        + ", itemId=" + itemId + ", quantity=" + quantity + '}';
+  }
+
+}
@@ -0,0 +1,592 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.mybatis.jpetstore.core.ConcurrencyException;
+import org.mybatis.jpetstore.core.EventCodec;
+import org.mybatis.jpetstore.core.EventPage;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.JsonEventCodec;
+import org.mybatis.jpetstore.core.PagedIterator;
+import org.mybatis.jpetstore.core.Snapshot;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link EventStore} writing to append-only segment files in a local directory, for single node deployments that do not
+ * run an EventStoreDB server.
+ * <p>
+ * Each record is framed as {@code length | crc32 | kind | streamId | revision | payload}. The last record of every
+ * append call is flagged as a commit; on startup each segment is scanned and anything after the last complete,
+ * checksummed commit is dropped, so a crash never leaves half an append behind. The per-stream index of record
+ * locations is rebuilt by that same scan and kept in memory.
+ */
+public class FileEventStore implements EventStore, Closeable {
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final Logger log = LoggerFactory.getLogger(FileEventStore.class);
+
+  private static final String SEGMENT_SUFFIX = ".segment";
+  private static final int HEADER_SIZE = 8;
+  private static final byte EVENT = 1;
+  private static final byte SNAPSHOT = 2;
+  private static final byte COMMIT = (byte) 0x80;
+  private static final int OFFSET_BITS = 40;
+  private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+  private final EventCodec codec;
+  private final Path directory;
+  private final FsyncPolicy fsyncPolicy;
+  private final int fsyncBatchSize;
+  private final int segmentSize;
+  private final List<Segment> segments = new ArrayList<>();
+  private final Map<String, List<Long>> streams = new HashMap<>();
+  private final Map<String, Long> snapshots = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ScheduledExecutorService fsyncScheduler;
+  private int unsyncedRecords;
+
+  public FileEventStore(Path directory) throws IOException {
+    this(directory, FsyncPolicy.PER_APPEND, 0, 0, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public FileEventStore(Path directory, FsyncPolicy fsyncPolicy, int fsyncBatchSize, long fsyncIntervalMillis,
+      int segmentSize) throws IOException {
+    this(directory, fsyncPolicy, fsyncBatchSize, fsyncIntervalMillis, segmentSize, new JsonEventCodec());
+  }
+
+  /**
+   * Opens the store, recovering any existing segments in the directory.
+   *
+   * @param directory
+   *          the directory holding the segment files
+   * @param fsyncPolicy
+   *          when appended records are forced to disk
+   * @param fsyncBatchSize
+   *          the number of records between two fsyncs with {@link FsyncPolicy#PER_BATCH}
+   * @param fsyncIntervalMillis
+   *          the time between two fsyncs with {@link FsyncPolicy#INTERVAL}
+   * @param segmentSize
+   *          the size after which a new segment file is started
+   * @param codec
+   *          the codec of the record payloads
+   */
+  public FileEventStore(Path directory, FsyncPolicy fsyncPolicy, int fsyncBatchSize, long fsyncIntervalMillis,
+      int segmentSize, EventCodec codec) throws IOException {
+    this.codec = codec;
+    this.directory = directory;
+    this.fsyncPolicy = fsyncPolicy;
+    this.fsyncBatchSize = fsyncBatchSize;
+    this.segmentSize = segmentSize;
+    open();
+    if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+      fsyncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "file-event-store-fsync");
+        thread.setDaemon(true);
+        return thread;
+      });
+      fsyncScheduler.scheduleAtFixedRate(this::forceQuietly, fsyncIntervalMillis, fsyncIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    } else {
+      fsyncScheduler = null;
+    }
+  }
+
+  private void open() throws IOException {
+    Files.createDirectories(directory);
+    List<Path> files;
+    try (Stream<Path> list = Files.list(directory)) {
+      files = list.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted()
+          .collect(Collectors.toList());
+    }
+    for (int i = 0; i < files.size(); i++) {
+      // only the segment still being written is preallocated
+      Segment segment = new Segment(i, files.get(i), i == files.size() - 1 ? segmentSize : 0);
+      segments.add(segment);
+      recover(segment, i == files.size() - 1);
+    }
+    if (segments.isEmpty()) {
+      segments.add(new Segment(0, segmentPath(0), segmentSize));
+    }
+  }
+
+  private void recover(Segment segment, boolean last) throws IOException {
+    long size = segment.size();
+    ByteBuffer buffer = segment.view(size);
+    List<Long> pending = new ArrayList<>();
+    long offset = 0;
+    long committed = 0;
+    while (offset + HEADER_SIZE <= size) {
+      int length = buffer.getInt((int) offset);
+      if (length <= 0 || offset + HEADER_SIZE + length > size
+          || checksum(buffer, (int) offset + HEADER_SIZE, length) != buffer.getInt((int) offset + 4)) {
+        break;
+      }
+      pending.add(location(segment, (int) offset));
+      offset += HEADER_SIZE + length;
+      if ((buffer.get((int) pending.get(pending.size() - 1).longValue() + HEADER_SIZE) & COMMIT) != 0) {
+        for (Long location : pending) {
+          index(location, read(buffer, (int) location.longValue()));
+        }
+        pending.clear();
+        committed = offset;
+      }
+    }
+    if (committed < size && isPadding(buffer, committed, size)) {
+      segment.recovered(committed);
+    } else if (committed < size) {
+      if (!last) {
+        throw new IOException("Corrupt record in " + segment.getPath() + " at offset " + committed);
+      }
+      log.warn("Truncating {} bytes of incomplete appends at the end of {}", size - committed, segment.getPath());
+      segment.truncate(committed);
+    }
+  }
+
+  /**
+   * Tells whether the segment holds only the zeros it was preallocated with from the given offset, the header of a
+   * record never being zero.
+   */
+  private static boolean isPadding(ByteBuffer buffer, long offset, long size) {
+    return offset + HEADER_SIZE <= size && buffer.getLong((int) offset) == 0;
+  }
+
+  private void index(long location, Record record) {
+    if (record.kind == EVENT) {
+      streams.computeIfAbsent(record.streamId, k -> new ArrayList<>()).add(location);
+    } else if (record.kind == SNAPSHOT) {
+      snapshots.put(record.streamId, location);
+    }
+  }
+
+  @Override
+  public String appendToStream(String streamId, DomainEvent e) {
+    return appendToStream(streamId, Collections.singletonList(e));
+  }
+
+  @Override
+  public String appendToStream(String streamId, List<DomainEvent> events) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      List<Long> stream = streams.get(streamId);
+      append(streamId, stream == null ? NO_STREAM : stream.size() - 1, events);
+    } finally {
+      writeLock.unlock();
+    }
+    return streamId;
+  }
+
+  @Override
+  public long appendToStream(String streamId, long expectedVersion, List<DomainEvent> events) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      List<Long> stream = streams.get(streamId);
+      long version = stream == null ? NO_STREAM : stream.size() - 1;
+      if (version != expectedVersion) {
+        throw new ConcurrencyException(streamId, expectedVersion, null);
+      }
+      append(streamId, version, events);
+      return version + events.size();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void append(String streamId, long version, List<DomainEvent> events) {
+    if (events.isEmpty()) {
+      return;
+    }
+    try {
+      List<ByteBuffer> records = new ArrayList<>(events.size());
+      int bytes = 0;
+      for (int i = 0; i < events.size(); i++) {
+        byte kind = i == events.size() - 1 ? (byte) (EVENT | COMMIT) : EVENT;
+        ByteBuffer record = encode(kind, streamId, version + 1 + i, codec.encode(events.get(i)));
+        bytes += record.remaining();
+        records.add(record);
+      }
+      List<Long> locations = write(records, bytes);
+      streams.computeIfAbsent(streamId, k -> new ArrayList<>()).addAll(locations);
+      for (int i = 0; i < events.size(); i++) {
+        events.get(i).setRevision(version + 1 + i);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void saveSnapshot(Snapshot snapshot) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      ByteBuffer record = encode((byte) (SNAPSHOT | COMMIT), snapshot.getStreamId(), snapshot.getVersion(),
+          codec.encodeSnapshot(snapshot));
+      List<Long> locations = write(Collections.singletonList(record), record.remaining());
+      snapshots.put(snapshot.getStreamId(), locations.get(0));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private List<Long> write(List<ByteBuffer> records, int bytes) throws IOException {
+    Segment segment = segments.get(segments.size() - 1);
+    if (segment.size() > 0 && segment.size() + bytes > segmentSize) {
+      segment.force();
+      segment.seal();
+      segment = new Segment(segments.size(), segmentPath(segments.size()), segmentSize);
+      segments.add(segment);
+    }
+    long start = segment.size();
+    List<Long> locations = new ArrayList<>(records.size());
+    try {
+      for (ByteBuffer record : records) {
+        locations.add(location(segment, segment.append(record)));
+      }
+    } catch (IOException e) {
+      // drop the partial batch so it cannot be committed by the next append
+      segment.truncate(start);
+      throw e;
+    }
+    unsyncedRecords += records.size();
+    if (fsyncPolicy == FsyncPolicy.PER_APPEND
+        || fsyncPolicy == FsyncPolicy.PER_BATCH && unsyncedRecords >= fsyncBatchSize) {
+      segment.force();
+      unsyncedRecords = 0;
+    }
+    return locations;
+  }
+
+  @Override
+  public List<DomainEvent> getAllStream() {
+    List<DomainEvent> results = new ArrayList<>();
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      for (Segment segment : segments) {
+        ByteBuffer buffer = segment.view(segment.size());
+        long offset = 0;
+        while (offset < segment.size()) {
+          Record record = read(buffer, (int) offset);
+          if (record.kind == EVENT) {
+            addEvent(results, record);
+          }
+          offset += HEADER_SIZE + buffer.getInt((int) offset);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      readLock.unlock();
+    }
+    return results;
+  }
+
+  @Override
+  public Stream<DomainEvent> readAll(int maxCount) {
+    return new PagedIterator<DomainEvent>() {
+      private long position = START_POSITION;
+
+      @Override
+      protected List<DomainEvent> fetch() {
+        EventPage page = readAllAfter(position, maxCount);
+        if (page.getPosition() == position) {
+          return null;
+        }
+        position = page.getPosition();
+        return page.getEvents();
+      }
+    }.stream();
+  }
+
+  /**
+   * The position holds the segment number in its high bits and the offset of the next record in that segment in its low
+   * {@value #OFFSET_BITS} bits.
+   */
+  @Override
+  public EventPage readAllAfter(long position, int maxCount) {
+    int segmentNumber = (int) (position >>> OFFSET_BITS);
+    long offset = position & OFFSET_MASK;
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      while (segmentNumber < segments.size() - 1 && offset >= segments.get(segmentNumber).size()) {
+        segmentNumber++;
+        offset = 0;
+      }
+      List<DomainEvent> page = new ArrayList<>();
+      Segment segment = segments.get(segmentNumber);
+      if (offset < segment.size()) {
+        ByteBuffer buffer = segment.view(segment.size());
+        while (page.size() < maxCount && offset < segment.size()) {
+          Record record = read(buffer, (int) offset);
+          if (record.kind == EVENT) {
+            addEvent(page, record);
+          }
+          offset += HEADER_SIZE + buffer.getInt((int) offset);
+        }
+      }
+      return new EventPage(page, ((long) segmentNumber << OFFSET_BITS) | offset);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public long lastPosition() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      int last = segments.size() - 1;
+      return ((long) last << OFFSET_BITS) | segments.get(last).size();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Positions in different segments are not comparable as numbers, so the distance adds up the bytes left in the first
+   * segment, the sizes of the segments in between and the offset in the last one.
+   */
+  @Override
+  public long distance(long from, long to) {
+    if (to <= from) {
+      return 0;
+    }
+    int fromSegment = (int) (from >>> OFFSET_BITS);
+    int toSegment = (int) (to >>> OFFSET_BITS);
+    long fromOffset = from & OFFSET_MASK;
+    long toOffset = to & OFFSET_MASK;
+    if (fromSegment == toSegment) {
+      return toOffset - fromOffset;
+    }
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      long bytes = Math.max(segments.get(fromSegment).size() - fromOffset, 0);
+      for (int i = fromSegment + 1; i < toSegment; i++) {
+        bytes += segments.get(i).size();
+      }
+      return bytes + toOffset;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Stream<DomainEvent> readStream(String streamId, long version, int maxCount) {
+    return new PagedIterator<DomainEvent>() {
+      private int from = (int) Math.max(version + 1, 0);
+
+      @Override
+      protected List<DomainEvent> fetch() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+          List<Long> stream = streams.getOrDefault(streamId, Collections.emptyList());
+          int to = Math.min(from + maxCount, stream.size());
+          if (from >= to) {
+            return null;
+          }
+          List<DomainEvent> page = readEvents(stream.subList(from, to));
+          from = to;
+          return page;
+        } finally {
+          readLock.unlock();
+        }
+      }
+    }.stream();
+  }
+
+  @Override
+  public List<DomainEvent> getStream(String streamId) {
+    return getStreamAfter(streamId, NO_STREAM);
+  }
+
+  @Override
+  public List<DomainEvent> getStreamAfter(String streamId, long version) {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      List<Long> stream = streams.getOrDefault(streamId, Collections.emptyList());
+      int from = (int) Math.min(Math.max(version + 1, 0), stream.size());
+      return readEvents(stream.subList(from, stream.size()));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Snapshot getSnapshot(String streamId) {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      Long location = snapshots.get(streamId);
+      return location == null ? null : codec.decodeSnapshot(payload(read(location)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  private List<DomainEvent> readEvents(List<Long> locations) {
+    List<DomainEvent> results = new ArrayList<>(locations.size());
+    try {
+      for (Long location : locations) {
+        addEvent(results, read(location));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return results;
+  }
+
+  private void addEvent(List<DomainEvent> results, Record record) throws IOException {
+    DomainEvent event = codec.decode(payload(record));
+    if (event != null) {
+      event.setRevision(record.revision);
+      results.add(event);
+    }
+  }
+
+  private Record read(long location) throws IOException {
+    Segment segment = segments.get((int) (location >>> 32));
+    int offset = (int) location;
+    return read(segment.view(offset + HEADER_SIZE), offset);
+  }
+
+  private static Record read(ByteBuffer buffer, int offset) {
+    int length = buffer.getInt(offset);
+    int position = offset + HEADER_SIZE;
+    Record record = new Record();
+    record.kind = (byte) (buffer.get(position) & ~COMMIT);
+    byte[] streamId = new byte[buffer.getShort(position + 1)];
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(position + 3);
+    slice.get(streamId);
+    record.streamId = new String(streamId, StandardCharsets.UTF_8);
+    record.revision = slice.getLong();
+    slice.limit(position + length);
+    record.payload = slice.slice();
+    return record;
+  }
+
+  private static byte[] payload(Record record) {
+    byte[] bytes = new byte[record.payload.remaining()];
+    record.payload.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static ByteBuffer encode(byte kind, String streamId, long revision, byte[] payload) {
+    byte[] id = streamId.getBytes(StandardCharsets.UTF_8);
+    int length = 1 + 2 + id.length + 8 + payload.length;
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+    record.putInt(length);
+    record.putInt(0);
+    record.put(kind);
+    record.putShort((short) id.length);
+    record.put(id);
+    record.putLong(revision);
+    record.put(payload);
+    record.putInt(4, checksum(record, HEADER_SIZE, length));
+    record.flip();
+    return record;
+  }
+
+  private static int checksum(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer body = buffer.duplicate();
+    body.limit(offset + length);
+    body.position(offset);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return (int) crc.getValue();
+  }
+
+  private static long location(Segment segment, int offset) {
+    return (long) segment.getNumber() << 32 | offset & 0xFFFFFFFFL;
+  }
+
+  private Path segmentPath(int number) {
+    return directory.resolve(String.format("%010d%s", number, SEGMENT_SUFFIX));
+  }
+
+  private void forceQuietly() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      segments.get(segments.size() - 1).force();
+    } catch (IOException e) {
+      log.error("Could not fsync the event log", e);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (fsyncScheduler != null) {
+      fsyncScheduler.shutdown();
+    }
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      segments.get(segments.size() - 1).force();
+      for (Segment segment : segments) {
+        segment.close();
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private static final class Record {
+    byte kind;
+    String streamId;
+    long revision;
+    ByteBuffer payload;
+  }
+
+}
@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core.file;
+
+/**
+ * When {@link FileEventStore} forces appended records to disk.
+ */
+public enum FsyncPolicy {
+  /**
+   * Before every append call returns. Nothing acknowledged is ever lost.
+   */
+  PER_APPEND,
+  /**
+   * Once a configured number of records has been written since the last fsync. A crash loses at most that many records.
+   */
+  PER_BATCH,
+  /**
+   * In the background at a fixed interval. A crash loses at most the last interval of appends.
+   */
+  INTERVAL
+}
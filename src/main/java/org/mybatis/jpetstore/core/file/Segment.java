@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One append-only file of the log. Records are written through the channel and read back through a read-only mapping.
+ * <p>
+ * The segment being written is preallocated to the full segment size and mapped once, so readers never have to remap it
+ * as it grows. The file is cut back to the records it holds when the segment is sealed or closed; after a crash the
+ * zeros past the last record are found and skipped by the recovery scan.
+ */
+class Segment implements Closeable {
+  private final int number;
+  private final Path path;
+  private final FileChannel channel;
+  private volatile long size;
+  // the end of the bytes written so far, past which the file only holds preallocated zeros
+  private long written;
+  private volatile MappedByteBuffer mapped;
+
+  /**
+   * Opens a segment.
+   *
+   * @param capacity
+   *          the size to preallocate, or 0 to map the file as it is
+   */
+  Segment(int number, Path path, long capacity) throws IOException {
+    this.number = number;
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.size = channel.size();
+    this.written = size;
+    // mapping past the end of a writable channel extends the file with zeros
+    this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(capacity, size));
+  }
+
+  int getNumber() {
+    return number;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  long size() {
+    return size;
+  }
+
+  /**
+   * Writes the record at the end of the segment.
+   *
+   * @return the offset of the record
+   */
+  int append(ByteBuffer record) throws IOException {
+    long offset = size;
+    long position = offset;
+    while (record.hasRemaining()) {
+      position += channel.write(record, position);
+      written = Math.max(written, position);
+    }
+    size = position;
+    return (int) offset;
+  }
+
+  /**
+   * Gets a read-only view covering at least the first {@code limit} bytes of the segment. The mapping only has to grow
+   * for a record larger than the whole segment.
+   */
+  ByteBuffer view(long limit) throws IOException {
+    MappedByteBuffer current = mapped;
+    if (current.capacity() < limit) {
+      synchronized (this) {
+        current = mapped;
+        if (current.capacity() < limit) {
+          current = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(limit, size));
+          mapped = current;
+        }
+      }
+    }
+    return current.duplicate();
+  }
+
+  /**
+   * Sets where the records recovered from a preallocated segment end.
+   */
+  void recovered(long newSize) {
+    size = newSize;
+    written = newSize;
+  }
+
+  /**
+   * Drops the records past the given size, zeroing them so the recovery scan stops there.
+   */
+  void truncate(long newSize) throws IOException {
+    ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+    for (long position = newSize; position < written;) {
+      zeros.clear().limit((int) Math.min(zeros.capacity(), written - position));
+      position += channel.write(zeros, position);
+    }
+    channel.force(true);
+    size = newSize;
+    written = newSize;
+  }
+
+  /**
+   * Cuts the preallocated zeros off the file, once no more records will be written to it.
+   */
+  void seal() throws IOException {
+    if (channel.size() > size) {
+      channel.truncate(size);
+      channel.force(true);
+    }
+  }
+
+  void force() throws IOException {
+    channel.force(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      seal();
+    } finally {
+      channel.close();
+    }
+  }
+
+}
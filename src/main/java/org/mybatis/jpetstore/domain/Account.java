@@ -15,13 +15,20 @@
  */
 package org.mybatis.jpetstore.domain;
 
-import java.io.Serializable;
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
+import org.mybatis.jpetstore.core.AggregateRoot;
+import org.mybatis.jpetstore.core.AttributeAppliers;
 import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
 import org.mybatis.jpetstore.core.event.DomainEvent;
 import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
 
@@ -30,10 +37,25 @@ import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
  *
  * @author Eduardo Macarron
  */
-public class Account implements Serializable {
+public class Account extends AggregateRoot {
+
+  /**
+   * The strings the {@link org.mybatis.jpetstore.core.BinaryEventCodec} replaces by a code in account events. Codes are
+   * the positions in this list and are written to the store, so entries may only ever be appended.
+   */
+  public static final List<String> EVENT_DICTIONARY = Collections
+      .unmodifiableList(Arrays.asList("EntityCreated.v1", "AttributeUpdated.v1", Account.class.getName(), "username",
+          "password", "email", "firstName", "lastName", "status", "address1", "address2", "city", "state", "zip",
+          "country", "phone", "favouriteCategoryId", "languagePreference", "listOption", "bannerOption", "bannerName",
+          "OK", "english", "japanese", "AttributesUpdated.v1"));
 
   private static final long serialVersionUID = 8751282105532159742L;
 
+  private static final AttributeAppliers<Account> APPLIERS = AttributeAppliers.of(MethodHandles.lookup(), Account.class,
+      "username", "password", "email", "firstName", "lastName", "status", "address1", "address2", "city", "state",
+      "zip", "country", "phone", "favouriteCategoryId", "languagePreference", "listOption", "bannerOption",
+      "bannerName");
+
   private String accountId;
   private String username;
   private String password;
@@ -55,16 +77,14 @@ public class Account implements Serializable {
   private boolean bannerOption;
   private String bannerName;
 
-  private List<DomainEvent> eventCache;
+  private Map<String, Object> pendingChanges;
 
   public Account() {
-    this.eventCache = new ArrayList<>();
     this.accountId = UUID.randomUUID().toString();
     cause(new EntityCreatedEvent(getStreamId(), Account.class.getName(), new Date().getTime()));
   }
 
   public Account(String accountId) {
-    this.eventCache = new ArrayList<>();
     this.accountId = accountId;
   }
 
@@ -72,8 +92,14 @@ public class Account implements Serializable {
     return this.accountId;
   }
 
-  public String getStreamId() {
-    return Account.class.getName() + "." + this.accountId;
+  @Override
+  public String getId() {
+    return this.accountId;
+  }
+
+  @Override
+  protected Class<Account> getType() {
+    return Account.class;
   }
 
   public String getUsername() {
@@ -284,77 +310,84 @@ public class Account implements Serializable {
     }
   }
 
-  private void cause(DomainEvent event) {
-    mutate(event);
-    eventCache.add(event);
+  @Override
+  protected void cause(DomainEvent event) {
+    if (pendingChanges != null && event instanceof AttributeUpdatedEvent) {
+      mutate(event);
+      pendingChanges.put(((AttributeUpdatedEvent) event).getName(), ((AttributeUpdatedEvent) event).getValue());
+    } else {
+      super.cause(event);
+    }
+  }
+
+  /**
+   * Runs a command as a unit of work: the attributes it changes are applied at once, so the command sees its own
+   * changes, but they are recorded as a single {@link AttributesUpdatedEvent} instead of one event per attribute.
+   * Nested calls join the enclosing unit of work.
+   *
+   * @param command
+   *          the changes to make
+   */
+  public void update(Consumer<Account> command) {
+    if (pendingChanges != null) {
+      command.accept(this);
+      return;
+    }
+    pendingChanges = new LinkedHashMap<>();
+    try {
+      command.accept(this);
+    } finally {
+      Map<String, Object> changes = pendingChanges;
+      pendingChanges = null;
+      // the changes were applied as they were made, whatever the command did afterwards
+      if (!changes.isEmpty()) {
+        AttributesUpdatedEvent event = new AttributesUpdatedEvent(getStreamId(), Account.class.getName(),
+            new Date().getTime());
+        event.setAttributes(changes);
+        record(event);
+      }
+    }
   }
 
+  @Override
   public void mutate(DomainEvent event) {
     if (event instanceof EntityCreatedEvent) {
       // pass
     } else if (event instanceof AttributeUpdatedEvent) {
       applyUpdatedEvent((AttributeUpdatedEvent) event);
+    } else if (event instanceof AttributesUpdatedEvent) {
+      ((AttributesUpdatedEvent) event).getAttributes().forEach(this::applyAttribute);
     } else
       throw new IllegalArgumentException();
   }
 
   private void applyUpdatedEvent(AttributeUpdatedEvent event) {
-    switch (event.getName()) {
-      case "username":
-        this.username = (String) event.getValue();
-        break;
-      case "password":
-        this.password = (String) event.getValue();
-        break;
-      case "email":
-        this.email = (String) event.getValue();
-        break;
-      case "firstName":
-        this.firstName = (String) event.getValue();
-        break;
-      case "lastName":
-        this.lastName = (String) event.getValue();
-        break;
-      case "status":
-        this.status = (String) event.getValue();
-        break;
-      case "address1":
-        this.address1 = (String) event.getValue();
-        break;
-      case "address2":
-        this.address2 = (String) event.getValue();
-        break;
-      case "city":
-        this.city = (String) event.getValue();
-        break;
-      case "state":
-        this.state = (String) event.getValue();
-        break;
-      case "zip":
-        this.zip = (String) event.getValue();
-        break;
-      case "country":
-        this.country = (String) event.getValue();
-        break;
-      case "phone":
-        this.phone = (String) event.getValue();
-        break;
-      case "favouriteCategoryId":
-        this.favouriteCategoryId = (String) event.getValue();
-        break;
-      case "languagePreference":
-        this.languagePreference = (String) event.getValue();
-        break;
-      case "listOption":
-        this.listOption = (boolean) event.getValue();
-        break;
-      case "bannerOption":
-        this.bannerOption = (boolean) event.getValue();
-        break;
-      case "bannerName":
-        this.bannerName = (String) event.getValue();
-        break;
-    }
+    applyAttribute(event.getName(), event.getValue());
+  }
+
+  private void applyAttribute(String name, Object value) {
+    APPLIERS.apply(this, name, value);
+  }
+
+  /**
+   * Captures the persistent attributes of the account, keyed by the same names used in its attribute events.
+   *
+   * @return the state
+   */
+  @Override
+  public Map<String, Object> snapshot() {
+    return APPLIERS.read(this);
+  }
+
+  /**
+   * Restores the attributes captured by {@link #snapshot()} without raising any event.
+   *
+   * @param state
+   *          the state
+   */
+  @Override
+  public void restore(Map<String, Object> state) {
+    state.forEach(this::applyAttribute);
   }
 
   private AttributeUpdatedEvent generateAttributeUpdatedEvent(String key, Object value) {
@@ -365,14 +398,6 @@ public class Account implements Serializable {
     return event;
   }
 
-  public void reset() {
-    this.eventCache.clear();
-  }
-
-  public List<DomainEvent> getEvents() {
-    return this.eventCache;
-  }
-
   @Override
   public String toString() {
     return String.format(
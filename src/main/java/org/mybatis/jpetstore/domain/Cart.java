@@ -15,45 +15,124 @@
  */
 package org.mybatis.jpetstore.domain;
 
-import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.mybatis.jpetstore.core.AggregateRoot;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+import org.mybatis.jpetstore.core.event.ItemAddedEvent;
+import org.mybatis.jpetstore.core.event.ItemRemovedEvent;
+import org.mybatis.jpetstore.core.event.QuantityChangedEvent;
 
 /**
  * The Class Cart.
+ * <p>
+ * Every change is recorded as an {@link ItemAddedEvent}, {@link QuantityChangedEvent} or {@link ItemRemovedEvent}, so
+ * the cart can be stored in the event store and looked up by id instead of living in the HTTP session.
+ * <p>
+ * The line items are kept in one insertion ordered map, so adding, updating and removing an item are constant time.
+ * Changes are serialized on the cart; readers share an immutable copy of the items, taken at most once per change, so
+ * rendering a cart never sees it half updated.
+ * <p>
+ * An {@link ItemAddedEvent} only records the item id and its price; when the events are replayed, the rest of the item
+ * is looked up in the catalog the cart was given.
  *
  * @author Eduardo Macarron
  */
-public class Cart implements Serializable {
+public class Cart extends AggregateRoot {
 
   private static final long serialVersionUID = 8329559983943337176L;
 
-  private final Map<String, CartItem> itemMap = Collections.synchronizedMap(new HashMap<>());
-  private final List<CartItem> itemList = new ArrayList<>();
+  /**
+   * The scale of the list prices, in which the subtotal is kept as a whole number of cents.
+   */
+  private static final int MINOR_UNIT_SCALE = 2;
+
+  private final String cartId;
+  private final transient Function<String, Item> catalog;
+  private final Map<String, CartItem> items = new LinkedHashMap<>();
+  private transient volatile List<CartItem> view;
+  private long subTotal;
+
+  public Cart() {
+    this(UUID.randomUUID().toString());
+    cause(new EntityCreatedEvent(getStreamId(), Cart.class.getName(), new Date().getTime()));
+  }
+
+  public Cart(String cartId) {
+    this(cartId, null);
+  }
+
+  /**
+   * Instantiates a cart to replay the events of.
+   *
+   * @param cartId
+   *          the cart id
+   * @param catalog
+   *          looks up an item by id, handing out a copy of its own; or {@code null} to rebuild items from their id and
+   *          price alone
+   */
+  public Cart(String cartId, Function<String, Item> catalog) {
+    this.cartId = cartId;
+    this.catalog = catalog;
+  }
+
+  public String getCartId() {
+    return cartId;
+  }
+
+  @Override
+  public String getId() {
+    return cartId;
+  }
+
+  @Override
+  protected Class<Cart> getType() {
+    return Cart.class;
+  }
 
   public Iterator<CartItem> getCartItems() {
-    return itemList.iterator();
+    return getCartItemList().iterator();
   }
 
+  /**
+   * Gets the line items, in the order they were added.
+   *
+   * @return an immutable copy of the items
+   */
   public List<CartItem> getCartItemList() {
-    return itemList;
+    List<CartItem> list = view;
+    if (list == null) {
+      synchronized (this) {
+        list = view;
+        if (list == null) {
+          list = Collections.unmodifiableList(new ArrayList<>(items.values()));
+          view = list;
+        }
+      }
+    }
+    return list;
   }
 
   public int getNumberOfItems() {
-    return itemList.size();
+    return getCartItemList().size();
   }
 
   public Iterator<CartItem> getAllCartItems() {
-    return itemList.iterator();
+    return getCartItemList().iterator();
   }
 
-  public boolean containsItemId(String itemId) {
-    return itemMap.containsKey(itemId);
+  public synchronized boolean containsItemId(String itemId) {
+    return items.containsKey(itemId);
   }
 
   /**
@@ -64,17 +143,20 @@ public class Cart implements Serializable {
    * @param isInStock
    *          the is in stock
    */
-  public void addItem(Item item, boolean isInStock) {
-    CartItem cartItem = itemMap.get(item.getItemId());
+  public synchronized void addItem(Item item, boolean isInStock) {
+    CartItem cartItem = items.get(item.getItemId());
     if (cartItem == null) {
-      cartItem = new CartItem();
-      cartItem.setItem(item);
-      cartItem.setQuantity(0);
-      cartItem.setInStock(isInStock);
-      itemMap.put(item.getItemId(), cartItem);
-      itemList.add(cartItem);
+      ItemAddedEvent event = new ItemAddedEvent(getStreamId(), Cart.class.getName(), new Date().getTime());
+      event.setItemId(item.getItemId());
+      event.setUnitPrice(item.getListPrice());
+      event.setInStock(isInStock);
+      // applied with the item at hand rather than one looked up again
+      put(item, 1, isInStock);
+      view = null;
+      record(event);
+    } else {
+      changeQuantity(item.getItemId(), cartItem.getQuantity() + 1);
     }
-    cartItem.incrementQuantity();
   }
 
   /**
@@ -85,41 +167,143 @@ public class Cart implements Serializable {
    *
    * @return the item
    */
-  public Item removeItemById(String itemId) {
-    CartItem cartItem = itemMap.remove(itemId);
+  public synchronized Item removeItemById(String itemId) {
+    CartItem cartItem = items.get(itemId);
     if (cartItem == null) {
       return null;
     } else {
-      itemList.remove(cartItem);
+      ItemRemovedEvent event = new ItemRemovedEvent(getStreamId(), Cart.class.getName(), new Date().getTime());
+      event.setItemId(itemId);
+      cause(event);
       return cartItem.getItem();
     }
   }
 
   /**
-   * Increment quantity by item id.
+   * Increment quantity by item id. Does nothing if the item is not in the cart, for instance because it was removed
+   * concurrently and the change is being retried.
+   *
+   * @param itemId
+   *          the item id
+   */
+  public synchronized void incrementQuantityByItemId(String itemId) {
+    CartItem cartItem = items.get(itemId);
+    if (cartItem != null) {
+      changeQuantity(itemId, cartItem.getQuantity() + 1);
+    }
+  }
+
+  /**
+   * Sets the quantity by item id. Does nothing if the item is not in the cart.
    *
    * @param itemId
    *          the item id
+   * @param quantity
+   *          the quantity
    */
-  public void incrementQuantityByItemId(String itemId) {
-    CartItem cartItem = itemMap.get(itemId);
-    cartItem.incrementQuantity();
+  public synchronized void setQuantityByItemId(String itemId, int quantity) {
+    CartItem cartItem = items.get(itemId);
+    if (cartItem != null && cartItem.getQuantity() != quantity) {
+      changeQuantity(itemId, quantity);
+    }
+  }
+
+  private void changeQuantity(String itemId, int quantity) {
+    QuantityChangedEvent event = new QuantityChangedEvent(getStreamId(), Cart.class.getName(), new Date().getTime());
+    event.setItemId(itemId);
+    event.setQuantity(quantity);
+    cause(event);
+  }
+
+  @Override
+  public synchronized void mutate(DomainEvent event) {
+    if (event instanceof EntityCreatedEvent) {
+      // pass
+    } else if (event instanceof ItemAddedEvent) {
+      ItemAddedEvent added = (ItemAddedEvent) event;
+      put(describe(added), 1, added.isInStock());
+    } else if (event instanceof QuantityChangedEvent) {
+      QuantityChangedEvent changed = (QuantityChangedEvent) event;
+      CartItem cartItem = items.get(changed.getItemId());
+      // replaced rather than updated, so the copies handed to readers never change under them
+      put(cartItem.getItem(), changed.getQuantity(), cartItem.isInStock());
+    } else if (event instanceof ItemRemovedEvent) {
+      CartItem removed = items.remove(((ItemRemovedEvent) event).getItemId());
+      if (removed != null) {
+        subTotal -= lineTotal(removed);
+      }
+    } else
+      throw new IllegalArgumentException();
+    view = null;
   }
 
-  public void setQuantityByItemId(String itemId, int quantity) {
-    CartItem cartItem = itemMap.get(itemId);
+  private Item describe(ItemAddedEvent added) {
+    Item listed = catalog == null ? null : catalog.apply(added.getItemId());
+    Item item = listed == null ? new Item() : listed;
+    item.setItemId(added.getItemId());
+    item.setListPrice(added.getUnitPrice());
+    return item;
+  }
+
+  private void put(Item item, int quantity, boolean inStock) {
+    CartItem cartItem = new CartItem();
+    cartItem.setItem(item);
     cartItem.setQuantity(quantity);
+    cartItem.setInStock(inStock);
+    CartItem previous = items.put(item.getItemId(), cartItem);
+    subTotal += lineTotal(cartItem) - (previous == null ? 0 : lineTotal(previous));
+  }
+
+  /**
+   * Gets the total of a line item in cents.
+   *
+   * @throws ArithmeticException
+   *           if the list price has fractions of a cent
+   */
+  private static long lineTotal(CartItem cartItem) {
+    BigDecimal listPrice = cartItem.getItem().getListPrice();
+    if (listPrice == null) {
+      return 0;
+    }
+    return Math.multiplyExact(listPrice.movePointRight(MINOR_UNIT_SCALE).longValueExact(), cartItem.getQuantity());
+  }
+
+  /**
+   * Captures the line items of the cart, in the order they were added. The state holds the {@link Item} objects
+   * themselves, so it is meant for the in-memory cache rather than for snapshots written to the store.
+   *
+   * @return the state
+   */
+  @Override
+  public Map<String, Object> snapshot() {
+    List<Map<String, Object>> lines = new ArrayList<>();
+    for (CartItem cartItem : getCartItemList()) {
+      Map<String, Object> line = new LinkedHashMap<>();
+      line.put("item", cartItem.getItem());
+      line.put("quantity", cartItem.getQuantity());
+      line.put("inStock", cartItem.isInStock());
+      lines.add(line);
+    }
+    return Collections.singletonMap("items", lines);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized void restore(Map<String, Object> state) {
+    for (Map<String, Object> line : (List<Map<String, Object>>) state.get("items")) {
+      put((Item) line.get("item"), (Integer) line.get("quantity"), (Boolean) line.get("inStock"));
+    }
+    view = null;
   }
 
   /**
-   * Gets the sub total.
+   * Gets the sub total. It is kept up to date in cents as items are added, changed and removed, so reading it does not
+   * walk the items.
    *
-   * @return the sub total
+   * @return the sub total, or {@link BigDecimal#ZERO} if the cart is empty
    */
-  public BigDecimal getSubTotal() {
-    return itemList.stream()
-        .map(cartItem -> cartItem.getItem().getListPrice().multiply(new BigDecimal(cartItem.getQuantity())))
-        .reduce(BigDecimal.ZERO, BigDecimal::add);
+  public synchronized BigDecimal getSubTotal() {
+    return items.isEmpty() ? BigDecimal.ZERO : BigDecimal.valueOf(subTotal, MINOR_UNIT_SCALE);
   }
 
 }
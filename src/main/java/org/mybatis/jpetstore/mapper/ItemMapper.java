@@ -18,6 +18,7 @@ package org.mybatis.jpetstore.mapper;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.ibatis.annotations.Param;
 import org.mybatis.jpetstore.domain.Item;
 
 /**
@@ -29,6 +30,14 @@ public interface ItemMapper {
 
   void updateInventoryQuantity(Map<String, Object> param);
 
+  /**
+   * Decrements the inventory of several items in a single statement.
+   *
+   * @param increments
+   *          the quantity to take from each item, keyed by item id; must not be empty
+   */
+  void updateInventoryQuantities(@Param("increments") Map<String, Integer> increments);
+
   int getInventoryQuantity(String itemId);
 
   List<Item> getItemListByProduct(String productId);
@@ -30,4 +30,12 @@ public interface LineItemMapper {
 
   void insertLineItem(LineItem lineItem);
 
+  /**
+   * Inserts several line items in a single multi-row statement.
+   *
+   * @param lineItems
+   *          the line items; must not be empty
+   */
+  void insertLineItems(List<LineItem> lineItems);
+
 }
@@ -15,6 +15,7 @@
  */
 package org.mybatis.jpetstore.mapper;
 
+import org.apache.ibatis.annotations.Param;
 import org.mybatis.jpetstore.domain.Sequence;
 
 /**
@@ -27,4 +28,16 @@ public interface SequenceMapper {
   Sequence getSequence(Sequence sequence);
 
   void updateSequence(Sequence sequence);
+
+  /**
+   * Moves the sequence forward by a whole block in one atomic statement.
+   *
+   * @param name
+   *          the sequence name
+   * @param blockSize
+   *          the number of ids to reserve
+   *
+   * @return the number of rows updated, 0 if there is no such sequence
+   */
+  int reserveBlock(@Param("name") String name, @Param("blockSize") int blockSize);
 }
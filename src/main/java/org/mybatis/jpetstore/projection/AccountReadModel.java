@@ -0,0 +1,242 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.mybatis.jpetstore.core.AggregateRoot;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.domain.Account;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Projection of the account events into the ACCOUNT, PROFILE and SIGNON tables, so the accounts can be queried with
+ * {@link org.mybatis.jpetstore.mapper.AccountMapper} while they stay event sourced.
+ * <p>
+ * The tables only accept complete rows, so instead of patching one column per event, the current rows of every account
+ * touched by a batch are read in one query, the attribute events of the batch are applied to them in the order they
+ * were appended, and the rows are rewritten. ACCOUNTSTREAM maps each account id to the username its rows are keyed by,
+ * so a rename replaces the rows of the old username. Accounts have no rows until they get a username; the attributes
+ * they are given before that are kept in memory. The writes of a batch go out as JDBC batches in one transaction.
+ */
+public class AccountReadModel implements EventHandler {
+  private static final String ACCOUNT_STREAM_PREFIX = AggregateRoot.streamId(Account.class, "");
+  private static final String SELECT_ACCOUNTS = "SELECT ACCOUNTSTREAM.ACCOUNTID, ACCOUNTSTREAM.USERID, "
+      + "SIGNON.PASSWORD, ACCOUNT.EMAIL, ACCOUNT.FIRSTNAME, ACCOUNT.LASTNAME, ACCOUNT.STATUS, ACCOUNT.ADDR1, "
+      + "ACCOUNT.ADDR2, ACCOUNT.CITY, ACCOUNT.STATE, ACCOUNT.ZIP, ACCOUNT.COUNTRY, ACCOUNT.PHONE, PROFILE.LANGPREF, "
+      + "PROFILE.FAVCATEGORY, PROFILE.MYLISTOPT, PROFILE.BANNEROPT FROM ACCOUNTSTREAM "
+      + "JOIN SIGNON ON SIGNON.USERNAME = ACCOUNTSTREAM.USERID JOIN ACCOUNT ON ACCOUNT.USERID = ACCOUNTSTREAM.USERID "
+      + "JOIN PROFILE ON PROFILE.USERID = ACCOUNTSTREAM.USERID WHERE ACCOUNTSTREAM.ACCOUNTID IN (:accountIds)";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final Map<String, Map<String, Object>> unnamed = new ConcurrentHashMap<>();
+  private final AtomicLong eventsProjected = new AtomicLong();
+  private final AtomicLong accountsWritten = new AtomicLong();
+  private volatile long lastEventTimestamp;
+
+  /**
+   * Instantiates a new read model.
+   *
+   * @param dataSource
+   *          the database holding the tables
+   * @param transactionManager
+   *          the transaction manager of that database
+   */
+  public AccountReadModel(DataSource dataSource, PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  @Override
+  public void handle(List<DomainEvent> events) {
+    Map<String, List<DomainEvent>> eventsByAccount = new LinkedHashMap<>();
+    for (DomainEvent event : events) {
+      if (Account.class.getName().equals(event.getEntityType())) {
+        eventsByAccount
+            .computeIfAbsent(event.getStreamId().substring(ACCOUNT_STREAM_PREFIX.length()), k -> new ArrayList<>())
+            .add(event);
+      }
+    }
+    if (!eventsByAccount.isEmpty()) {
+      Map<String, Map<String, Object>> stillUnnamed = new HashMap<>();
+      Integer written = transactionTemplate.execute(status -> write(eventsByAccount, stillUnnamed));
+      // only once the rows are committed, so a failed batch is applied again to the same state
+      unnamed.keySet().removeAll(eventsByAccount.keySet());
+      unnamed.putAll(stillUnnamed);
+      accountsWritten.addAndGet(written == null ? 0 : written);
+    }
+    eventsProjected.addAndGet(events.size());
+    lastEventTimestamp = events.get(events.size() - 1).getTimestamp();
+  }
+
+  private int write(Map<String, List<DomainEvent>> eventsByAccount, Map<String, Map<String, Object>> stillUnnamed) {
+    Map<String, Map<String, Object>> accounts = load(eventsByAccount.keySet());
+
+    // drop the rows under the usernames the accounts had, and under the ones they have now
+    Set<String> usernames = new LinkedHashSet<>();
+    List<Object[]> accountIds = new ArrayList<>(eventsByAccount.size());
+    Map<String, String> accountIdsByUsername = new LinkedHashMap<>();
+    for (Map.Entry<String, List<DomainEvent>> entry : eventsByAccount.entrySet()) {
+      String accountId = entry.getKey();
+      Map<String, Object> account = accounts.get(accountId);
+      if (account == null) {
+        Map<String, Object> pending = unnamed.get(accountId);
+        account = pending == null ? new HashMap<>() : new HashMap<>(pending);
+        accounts.put(accountId, account);
+      } else {
+        usernames.add((String) account.get("username"));
+      }
+      for (DomainEvent event : entry.getValue()) {
+        apply(account, event);
+      }
+      accountIds.add(new Object[] { accountId });
+      String username = string(account.get("username"));
+      if (username == null) {
+        stillUnnamed.put(accountId, account);
+      } else {
+        // like the username index, the last account to take a username owns it
+        accountIdsByUsername.remove(username);
+        accountIdsByUsername.put(username, accountId);
+      }
+    }
+    usernames.addAll(accountIdsByUsername.keySet());
+    List<Object[]> userIds = new ArrayList<>(usernames.size());
+    usernames.forEach(username -> userIds.add(new Object[] { username }));
+    jdbcTemplate.batchUpdate("DELETE FROM SIGNON WHERE USERNAME = ?", userIds);
+    jdbcTemplate.batchUpdate("DELETE FROM PROFILE WHERE USERID = ?", userIds);
+    jdbcTemplate.batchUpdate("DELETE FROM ACCOUNT WHERE USERID = ?", userIds);
+    jdbcTemplate.batchUpdate("DELETE FROM ACCOUNTSTREAM WHERE USERID = ?", userIds);
+    jdbcTemplate.batchUpdate("DELETE FROM ACCOUNTSTREAM WHERE ACCOUNTID = ?", accountIds);
+
+    List<Object[]> streams = new ArrayList<>();
+    List<Object[]> signons = new ArrayList<>();
+    List<Object[]> rows = new ArrayList<>();
+    List<Object[]> profiles = new ArrayList<>();
+    accountIdsByUsername.forEach((username, accountId) -> {
+      Map<String, Object> account = accounts.get(accountId);
+      streams.add(new Object[] { accountId, username });
+      signons.add(new Object[] { username, orEmpty(account.get("password")) });
+      rows.add(new Object[] { username, orEmpty(account.get("email")), orEmpty(account.get("firstName")),
+          orEmpty(account.get("lastName")), string(account.get("status")), orEmpty(account.get("address1")),
+          string(account.get("address2")), orEmpty(account.get("city")), orEmpty(account.get("state")),
+          orEmpty(account.get("zip")), orEmpty(account.get("country")), orEmpty(account.get("phone")) });
+      profiles.add(new Object[] { username, orEmpty(account.get("languagePreference")),
+          string(account.get("favouriteCategoryId")), flag(account.get("listOption")),
+          flag(account.get("bannerOption")) });
+    });
+    jdbcTemplate.batchUpdate("INSERT INTO ACCOUNTSTREAM (ACCOUNTID, USERID) VALUES (?, ?)", streams);
+    jdbcTemplate.batchUpdate("INSERT INTO SIGNON (USERNAME, PASSWORD) VALUES (?, ?)", signons);
+    jdbcTemplate.batchUpdate("INSERT INTO ACCOUNT (USERID, EMAIL, FIRSTNAME, LASTNAME, STATUS, ADDR1, ADDR2, CITY, "
+        + "STATE, ZIP, COUNTRY, PHONE) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", rows);
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO PROFILE (USERID, LANGPREF, FAVCATEGORY, MYLISTOPT, BANNEROPT) VALUES (?, ?, ?, ?, ?)", profiles);
+    return accountIdsByUsername.size();
+  }
+
+  /**
+   * Reads the current rows of the accounts, keyed by account id, as attributes named like those of the account events.
+   */
+  private Map<String, Map<String, Object>> load(Set<String> accountIds) {
+    Map<String, Map<String, Object>> accounts = new HashMap<>();
+    namedParameterJdbcTemplate.query(SELECT_ACCOUNTS, Collections.singletonMap("accountIds", accountIds), rs -> {
+      Map<String, Object> account = new HashMap<>();
+      account.put("username", rs.getString("USERID"));
+      account.put("password", rs.getString("PASSWORD"));
+      account.put("email", rs.getString("EMAIL"));
+      account.put("firstName", rs.getString("FIRSTNAME"));
+      account.put("lastName", rs.getString("LASTNAME"));
+      account.put("status", rs.getString("STATUS"));
+      account.put("address1", rs.getString("ADDR1"));
+      account.put("address2", rs.getString("ADDR2"));
+      account.put("city", rs.getString("CITY"));
+      account.put("state", rs.getString("STATE"));
+      account.put("zip", rs.getString("ZIP"));
+      account.put("country", rs.getString("COUNTRY"));
+      account.put("phone", rs.getString("PHONE"));
+      account.put("languagePreference", rs.getString("LANGPREF"));
+      account.put("favouriteCategoryId", rs.getString("FAVCATEGORY"));
+      account.put("listOption", rs.getInt("MYLISTOPT") == 1);
+      account.put("bannerOption", rs.getInt("BANNEROPT") == 1);
+      accounts.put(rs.getString("ACCOUNTID"), account);
+    });
+    return accounts;
+  }
+
+  private static void apply(Map<String, Object> account, DomainEvent event) {
+    if (event instanceof AttributeUpdatedEvent) {
+      account.put(((AttributeUpdatedEvent) event).getName(), ((AttributeUpdatedEvent) event).getValue());
+    } else if (event instanceof AttributesUpdatedEvent) {
+      account.putAll(((AttributesUpdatedEvent) event).getAttributes());
+    }
+  }
+
+  private static String string(Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  private static int flag(Object value) {
+    return Boolean.TRUE.equals(value) || "true".equals(value) ? 1 : 0;
+  }
+
+  private static String orEmpty(Object value) {
+    // the account columns are mandatory while the events may not have set every attribute yet
+    return value == null ? "" : value.toString();
+  }
+
+  public long getEventsProjected() {
+    return eventsProjected.get();
+  }
+
+  public long getAccountsWritten() {
+    return accountsWritten.get();
+  }
+
+  /**
+   * Gets when the last event projected was recorded, to tell how stale the tables are in time rather than in store
+   * positions.
+   *
+   * @return the timestamp, or 0 if nothing was projected yet
+   */
+  public long getLastEventTimestamp() {
+    return lastEventTimestamp;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("AccountReadModel{ eventsProjected=%d, accountsWritten=%d, lastEventTimestamp=%d}",
+        eventsProjected.get(), accountsWritten.get(), lastEventTimestamp);
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.mybatis.jpetstore.core.EventPage;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.repository.EventSourcedRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events of every stream to the registered handlers, starting from the last saved checkpoint: first the
+ * events already in the store, then the ones appended while it runs.
+ * <p>
+ * The subscription runs on its own thread and pulls one page at a time, fetching the next page only once every handler
+ * is done with the current one. A slow handler therefore slows the reads down instead of letting events pile up in
+ * memory. The checkpoint is saved after each page, so a restart resumes from the last page fully handled. With a
+ * {@link ProjectionRebuilder} the events already in the store are first spread over its threads instead.
+ * <p>
+ * Once caught up the store is polled, and {@link #wakeUp()} cuts the wait short; the subscription calls it itself after
+ * every append made through the repositories it {@link #listenTo(EventSourcedRepository) listens to}. Every status
+ * interval the position, the lag and the state of the handlers are logged.
+ */
+public class CatchUpSubscription implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(CatchUpSubscription.class);
+  private static final long DEFAULT_POLL_INTERVAL_MILLIS = 500;
+  private static final long DEFAULT_STATUS_INTERVAL_MILLIS = 60000;
+
+  private final EventStore eventStore;
+  private final CheckpointStore checkpoints;
+  private final String name;
+  private final int batchSize;
+  private final long pollIntervalMillis;
+  private long statusIntervalMillis = DEFAULT_STATUS_INTERVAL_MILLIS;
+  private long lastStatusMillis;
+  private final List<EventHandler> handlers = new CopyOnWriteArrayList<>();
+  private final Object signal = new Object();
+  private boolean signalled;
+  private volatile long position;
+  private volatile boolean live;
+  private volatile boolean running;
+  private ExecutorService executor;
+  private ProjectionRebuilder rebuilder;
+
+  public CatchUpSubscription(EventStore eventStore, CheckpointStore checkpoints, String name) {
+    this(eventStore, checkpoints, name, EventStore.DEFAULT_PAGE_SIZE, DEFAULT_POLL_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Instantiates a new subscription.
+   *
+   * @param eventStore
+   *          the store to read
+   * @param checkpoints
+   *          where the position of the subscription is saved
+   * @param name
+   *          the name the checkpoint is saved under
+   * @param batchSize
+   *          the maximum number of events handed to the handlers at once
+   * @param pollIntervalMillis
+   *          how long to wait before reading again once caught up
+   */
+  public CatchUpSubscription(EventStore eventStore, CheckpointStore checkpoints, String name, int batchSize,
+      long pollIntervalMillis) {
+    this.eventStore = eventStore;
+    this.checkpoints = checkpoints;
+    this.name = name;
+    this.batchSize = batchSize;
+    this.pollIntervalMillis = pollIntervalMillis;
+    this.position = checkpoints.load(name);
+  }
+
+  /**
+   * Registers a handler. Handlers must all be registered before the subscription starts, so they all see every event.
+   *
+   * @param handler
+   *          the handler
+   */
+  public synchronized void subscribe(EventHandler handler) {
+    if (executor != null) {
+      throw new IllegalStateException("Subscription " + name + " is already running");
+    }
+    handlers.add(handler);
+  }
+
+  public void setHandlers(List<EventHandler> handlers) {
+    handlers.forEach(this::subscribe);
+  }
+
+  /**
+   * Wakes the subscription up after every append made through the repository, so the events written by this node are
+   * handled without waiting for the next poll. Appends made elsewhere are still picked up by polling.
+   *
+   * @param repository
+   *          the repository
+   */
+  public void listenTo(EventSourcedRepository<?> repository) {
+    repository.addAppendListener(this::wakeUp);
+  }
+
+  public void setRepositories(List<EventSourcedRepository<?>> repositories) {
+    repositories.forEach(this::listenTo);
+  }
+
+  /**
+   * Catches up with the given rebuilder, spreading the events already in the store over its threads, before handling
+   * the rest one page at a time. If the rebuild fails, the subscription carries on from the last page it completed.
+   *
+   * @param rebuilder
+   *          the rebuilder, saving its checkpoint under the name of this subscription in the same store
+   */
+  public void setRebuilder(ProjectionRebuilder rebuilder) {
+    if (!name.equals(rebuilder.getName())) {
+      throw new IllegalArgumentException(
+          "Rebuilder " + rebuilder.getName() + " does not save its checkpoint as subscription " + name);
+    }
+    this.rebuilder = rebuilder;
+  }
+
+  /**
+   * Sets how often the status of the subscription is logged.
+   *
+   * @param statusIntervalMillis
+   *          the interval, or 0 to never log it
+   */
+  public void setStatusIntervalMillis(long statusIntervalMillis) {
+    this.statusIntervalMillis = statusIntervalMillis;
+  }
+
+  /**
+   * Starts delivering events on the subscription thread.
+   */
+  public synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+    running = true;
+    executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "subscription-" + name);
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.execute(this::run);
+  }
+
+  private void run() {
+    if (rebuilder != null) {
+      rebuild();
+    }
+    log.info("Subscription {} starting from position {}", name, position);
+    while (running) {
+      try {
+        if (!poll()) {
+          if (!live) {
+            live = true;
+            log.info("Subscription {} caught up at position {}", name, position);
+          }
+          await();
+        }
+      } catch (RuntimeException e) {
+        log.error("Subscription " + name + " failed at position " + position + ", retrying", e);
+        await();
+      }
+      logStatusIfDue();
+    }
+  }
+
+  private void logStatusIfDue() {
+    long now = System.currentTimeMillis();
+    if (statusIntervalMillis <= 0 || now - lastStatusMillis < statusIntervalMillis) {
+      return;
+    }
+    lastStatusMillis = now;
+    try {
+      log.info("Subscription {} at position {}, {} behind the store, handlers {}", name, position, getLag(), handlers);
+    } catch (RuntimeException e) {
+      log.warn("Subscription " + name + " could not read the store position", e);
+    }
+  }
+
+  private void rebuild() {
+    try {
+      position = rebuilder.rebuild(this::deliver);
+    } catch (RuntimeException e) {
+      log.error("Rebuild of " + name + " failed, catching up one page at a time", e);
+      position = checkpoints.load(name);
+    }
+  }
+
+  /**
+   * Reads the next page and hands it to every handler.
+   *
+   * @return false if there was nothing new to read
+   */
+  boolean poll() {
+    EventPage page = eventStore.readAllAfter(position, batchSize);
+    if (page.getPosition() == position) {
+      return false;
+    }
+    List<DomainEvent> events = page.getEvents();
+    if (!events.isEmpty()) {
+      deliver(events);
+    }
+    checkpoints.save(name, page.getPosition());
+    position = page.getPosition();
+    return true;
+  }
+
+  private void deliver(List<DomainEvent> events) {
+    for (EventHandler handler : handlers) {
+      handler.handle(events);
+    }
+  }
+
+  /**
+   * Makes the subscription read the store now rather than at the end of its poll interval, typically right after an
+   * append.
+   */
+  public void wakeUp() {
+    synchronized (signal) {
+      signalled = true;
+      signal.notifyAll();
+    }
+  }
+
+  private void await() {
+    synchronized (signal) {
+      try {
+        if (!signalled && running) {
+          signal.wait(pollIntervalMillis);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      }
+      signalled = false;
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the position following the last event handled.
+   *
+   * @return the position
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Gets how far the subscription is behind the store, as measured by {@link EventStore#distance(long, long)}: the
+   * number of events for the in-memory store, bytes of the log for the others. It is 0 once everything appended so far
+   * has been handled.
+   *
+   * @return the lag
+   */
+  public long getLag() {
+    return eventStore.distance(position, eventStore.lastPosition());
+  }
+
+  /**
+   * Tells whether the subscription has read everything that was in the store when it started.
+   *
+   * @return true once caught up
+   */
+  public boolean isLive() {
+    return live;
+  }
+
+  @Override
+  public synchronized void close() {
+    running = false;
+    wakeUp();
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        if (!executor.awaitTermination(pollIntervalMillis + 5000, TimeUnit.MILLISECONDS)) {
+          executor.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        executor.shutdownNow();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+/**
+ * Durable record of how far each subscription has read the store.
+ */
+public interface CheckpointStore {
+
+  /**
+   * Gets the position the subscription last saved.
+   *
+   * @param subscription
+   *          the subscription name
+   *
+   * @return the position, or {@link org.mybatis.jpetstore.core.EventStore#START_POSITION} if none was saved yet
+   */
+  long load(String subscription);
+
+  void save(String subscription, long position);
+
+}
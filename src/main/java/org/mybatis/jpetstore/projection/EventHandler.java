@@ -0,0 +1,38 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.util.List;
+
+import org.mybatis.jpetstore.core.event.DomainEvent;
+
+/**
+ * Receives the events delivered by a {@link CatchUpSubscription}, one batch at a time and in the order they were
+ * appended.
+ */
+@FunctionalInterface
+public interface EventHandler {
+
+  /**
+   * Applies a batch of events. Throwing makes the subscription deliver the same batch again later, so handlers must
+   * tolerate seeing events they already applied before a failure.
+   *
+   * @param events
+   *          the events
+   */
+  void handle(List<DomainEvent> events);
+
+}
@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.mybatis.jpetstore.core.EventStore;
+
+/**
+ * {@link CheckpointStore} keeping the positions in a properties file, replaced atomically on every save so a crash
+ * leaves either the old or the new checkpoint behind.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+  private final Path file;
+  private Properties positions;
+
+  public FileCheckpointStore(Path file) {
+    this.file = file;
+  }
+
+  @Override
+  public synchronized long load(String subscription) {
+    String position = positions().getProperty(subscription);
+    return position == null ? EventStore.START_POSITION : Long.parseLong(position);
+  }
+
+  @Override
+  public synchronized void save(String subscription, long position) {
+    positions().setProperty(subscription, Long.toString(position));
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        positions.store(writer, "subscription checkpoints");
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Properties positions() {
+    if (positions == null) {
+      positions = new Properties();
+      if (Files.exists(file)) {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+          positions.load(reader);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    return positions;
+  }
+
+}
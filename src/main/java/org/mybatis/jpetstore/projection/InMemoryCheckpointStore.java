@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mybatis.jpetstore.core.EventStore;
+
+/**
+ * {@link CheckpointStore} that forgets everything on restart, for read models that are themselves kept in memory.
+ */
+public class InMemoryCheckpointStore implements CheckpointStore {
+  private final Map<String, Long> positions = new ConcurrentHashMap<>();
+
+  @Override
+  public long load(String subscription) {
+    return positions.getOrDefault(subscription, EventStore.START_POSITION);
+  }
+
+  @Override
+  public void save(String subscription, long position) {
+    positions.put(subscription, position);
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.mybatis.jpetstore.core.EventStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * {@link CheckpointStore} keeping the positions in the SUBSCRIPTION table, next to the read models they belong to, so
+ * the checkpoint can never outlive the rows it describes.
+ */
+public class JdbcCheckpointStore implements CheckpointStore {
+  private final JdbcTemplate jdbcTemplate;
+
+  public JdbcCheckpointStore(DataSource dataSource) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+  }
+
+  @Override
+  public long load(String subscription) {
+    List<Long> positions = jdbcTemplate.queryForList("SELECT LASTPOSITION FROM SUBSCRIPTION WHERE NAME = ?", Long.class,
+        subscription);
+    return positions.isEmpty() ? EventStore.START_POSITION : positions.get(0);
+  }
+
+  @Override
+  public void save(String subscription, long position) {
+    if (jdbcTemplate.update("UPDATE SUBSCRIPTION SET LASTPOSITION = ? WHERE NAME = ?", position, subscription) == 0) {
+      jdbcTemplate.update("INSERT INTO SUBSCRIPTION (NAME, LASTPOSITION) VALUES (?, ?)", subscription, position);
+    }
+  }
+
+}
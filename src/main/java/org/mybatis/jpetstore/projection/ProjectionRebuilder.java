@@ -0,0 +1,209 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mybatis.jpetstore.core.EventPage;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds a projection from the whole store with several threads.
+ * <p>
+ * The store is read once, one page at a time, and the events of each page are split by the hash of their stream id
+ * between the workers. Every worker applies its share of a page as one batch, and a worker runs its batches in order,
+ * so the events of a stream always reach the handler in the order they were appended; events of different streams may
+ * be applied concurrently, so the handler must be thread safe. A few pages are kept in flight, and the reader waits for
+ * the oldest one to be applied before it reads further.
+ * <p>
+ * The position of a page is saved as a checkpoint once all of it has been applied. A rebuild that fails or is
+ * interrupted resumes from there, and a {@link CatchUpSubscription} of the same name takes over once it is done; given
+ * to that subscription with {@link CatchUpSubscription#setRebuilder(ProjectionRebuilder)}, the rebuilder runs every
+ * time the subscription starts.
+ */
+public class ProjectionRebuilder {
+  private static final Logger log = LoggerFactory.getLogger(ProjectionRebuilder.class);
+  private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final EventStore eventStore;
+  private final CheckpointStore checkpoints;
+  private final String name;
+  private final int threads;
+  private final int batchSize;
+  private final AtomicLong eventsApplied = new AtomicLong();
+  private volatile long position;
+
+  /**
+   * Instantiates a new rebuilder.
+   *
+   * @param eventStore
+   *          the store to read
+   * @param checkpoints
+   *          where the progress of the rebuild is saved
+   * @param name
+   *          the name the checkpoint is saved under
+   * @param threads
+   *          the number of workers
+   * @param batchSize
+   *          the number of events read per page
+   */
+  public ProjectionRebuilder(EventStore eventStore, CheckpointStore checkpoints, String name, int threads,
+      int batchSize) {
+    this.eventStore = eventStore;
+    this.checkpoints = checkpoints;
+    this.name = name;
+    this.threads = threads;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Applies every event after the saved checkpoint to the handler.
+   *
+   * @param handler
+   *          the projection to rebuild
+   *
+   * @return the position reached, which is also saved as the checkpoint
+   */
+  public long rebuild(EventHandler handler) {
+    position = checkpoints.load(name);
+    long start = System.nanoTime();
+    long lastReport = start;
+    log.info("Rebuilding {} with {} threads from position {}", name, threads, position);
+    List<ExecutorService> workers = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      String threadName = "rebuild-" + name + "-" + i;
+      workers.add(Executors.newSingleThreadExecutor(r -> new Thread(r, threadName)));
+    }
+    Deque<PageInFlight> inFlight = new ArrayDeque<>();
+    try {
+      long readPosition = position;
+      EventPage page = eventStore.readAllAfter(readPosition, batchSize);
+      while (page.getPosition() != readPosition) {
+        inFlight.add(submit(page, handler, workers));
+        // two pages per worker keep every worker busy while bounding what is held in memory
+        while (inFlight.size() > 2 * threads) {
+          complete(inFlight.poll());
+        }
+        if (System.nanoTime() - lastReport > PROGRESS_INTERVAL_NANOS) {
+          lastReport = System.nanoTime();
+          report(start);
+        }
+        readPosition = page.getPosition();
+        page = eventStore.readAllAfter(readPosition, batchSize);
+      }
+      while (!inFlight.isEmpty()) {
+        complete(inFlight.poll());
+      }
+    } finally {
+      workers.forEach(ExecutorService::shutdownNow);
+    }
+    report(start);
+    return position;
+  }
+
+  private PageInFlight submit(EventPage page, EventHandler handler, List<ExecutorService> workers) {
+    List<List<DomainEvent>> partitions = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      partitions.add(new ArrayList<>());
+    }
+    for (DomainEvent event : page.getEvents()) {
+      partitions.get(partition(event.getStreamId())).add(event);
+    }
+    List<Future<?>> batches = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      List<DomainEvent> batch = partitions.get(i);
+      if (!batch.isEmpty()) {
+        batches.add(workers.get(i).submit(() -> {
+          handler.handle(batch);
+          eventsApplied.addAndGet(batch.size());
+        }));
+      }
+    }
+    return new PageInFlight(page.getPosition(), batches);
+  }
+
+  private int partition(String streamId) {
+    return (streamId.hashCode() & Integer.MAX_VALUE) % threads;
+  }
+
+  private void complete(PageInFlight page) {
+    try {
+      for (Future<?> batch : page.batches) {
+        batch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Rebuild of " + name + " interrupted at position " + position, e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Rebuild of " + name + " failed after position " + position, e.getCause());
+    }
+    checkpoints.save(name, page.position);
+    position = page.position;
+  }
+
+  private void report(long start) {
+    long applied = eventsApplied.get();
+    long elapsedMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), 1);
+    log.info("Rebuild of {}: {} events applied in {} ms ({} events/s), position {}, lag {}", name, applied,
+        elapsedMillis, applied * 1000 / elapsedMillis, position,
+        eventStore.distance(position, eventStore.lastPosition()));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the number of events applied so far.
+   *
+   * @return the count
+   */
+  public long getEventsApplied() {
+    return eventsApplied.get();
+  }
+
+  /**
+   * Gets the position up to which every event has been applied.
+   *
+   * @return the position
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  private static final class PageInFlight {
+    private final long position;
+    private final List<Future<?>> batches;
+
+    PageInFlight(long position, List<Future<?>> batches) {
+      this.position = position;
+      this.batches = batches;
+    }
+  }
+
+}
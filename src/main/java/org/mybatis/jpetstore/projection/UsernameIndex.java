@@ -0,0 +1,281 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.mybatis.jpetstore.core.AggregateRoot;
+import org.mybatis.jpetstore.core.EventPage;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.domain.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Projection of the account events into a username to account id lookup, checkpointed to a file so it does not have to
+ * be rebuilt from the whole store after a restart.
+ * <p>
+ * The file records the position of the store the index was built up to. On load the index reads the events appended
+ * since, so accounts written by other nodes or lost in a crash before the last checkpoint are picked up, and a file
+ * ahead of the store, left behind by a store that was wiped, is discarded. A lookup that misses catches up again before
+ * giving up. The file is rewritten every so many changes rather than on each one, and when the index is closed.
+ * <p>
+ * The index is loaded on first use, or up front by {@link #warmUp()}; lookups that hit never block once it is loaded.
+ */
+public class UsernameIndex {
+  private static final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+  private static final String ACCOUNT_STREAM_PREFIX = AggregateRoot.streamId(Account.class, "");
+  private static final String POSITION_KEY = "position";
+  private static final String USERNAME_PREFIX = "username.";
+  private static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+
+  private final EventStore eventStore;
+  private final Path file;
+  private final Map<String, String> accountIdsByUsername = new ConcurrentHashMap<>();
+  private final Map<String, String> usernamesByAccountId = new ConcurrentHashMap<>();
+  private volatile boolean loaded;
+  // guarded by this
+  private long position = EventStore.START_POSITION;
+  private int changesSinceCheckpoint;
+  private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+  /**
+   * Instantiates a new username index.
+   *
+   * @param eventStore
+   *          the store the index is built from
+   * @param file
+   *          where to checkpoint the index, or null to keep it in memory only
+   */
+  public UsernameIndex(EventStore eventStore, Path file) {
+    this.eventStore = eventStore;
+    this.file = file;
+  }
+
+  /**
+   * Sets how many username changes are applied between two checkpoints of the file.
+   *
+   * @param checkpointInterval
+   *          the number of changes
+   */
+  public void setCheckpointInterval(int checkpointInterval) {
+    this.checkpointInterval = checkpointInterval;
+  }
+
+  /**
+   * Loads the index now rather than on the first lookup, so the first sign-on after a restart does not pay for it.
+   */
+  public void warmUp() {
+    ensureLoaded();
+  }
+
+  /**
+   * Gets the id of the account currently using the username.
+   *
+   * @param username
+   *          the username
+   *
+   * @return the account id, or null if no account uses it
+   */
+  public String find(String username) {
+    ensureLoaded();
+    if (username == null) {
+      return null;
+    }
+    String accountId = accountIdsByUsername.get(username);
+    if (accountId == null) {
+      // the account may have been created by another node since the index last read the store
+      catchUp();
+      accountId = accountIdsByUsername.get(username);
+    }
+    return accountId;
+  }
+
+  /**
+   * Applies the events just appended by this node, so they can be found before the index reads them back from the
+   * store. Reading them again later is harmless.
+   *
+   * @param events
+   *          the events
+   */
+  public void applyAll(Iterable<DomainEvent> events) {
+    ensureLoaded();
+    // writers are serialized so both maps stay in step, readers only ever look at one of them
+    synchronized (this) {
+      for (DomainEvent event : events) {
+        if (apply(event)) {
+          changesSinceCheckpoint++;
+        }
+      }
+      checkpointIfDue();
+    }
+  }
+
+  /**
+   * Writes the changes not checkpointed yet.
+   */
+  public synchronized void close() {
+    if (loaded && changesSinceCheckpoint > 0) {
+      flush();
+    }
+  }
+
+  /**
+   * Gets the position of the store the index has read up to.
+   *
+   * @return the position
+   */
+  public synchronized long getPosition() {
+    return position;
+  }
+
+  private boolean apply(DomainEvent event) {
+    // an EntityCreatedEvent carries no username, the account only becomes reachable once one is set
+    if (!Account.class.getName().equals(event.getEntityType())) {
+      return false;
+    }
+    String username;
+    if (event instanceof AttributeUpdatedEvent && "username".equals(((AttributeUpdatedEvent) event).getName())) {
+      username = (String) ((AttributeUpdatedEvent) event).getValue();
+    } else if (event instanceof AttributesUpdatedEvent
+        && ((AttributesUpdatedEvent) event).getAttributes().containsKey("username")) {
+      username = (String) ((AttributesUpdatedEvent) event).getAttributes().get("username");
+    } else {
+      return false;
+    }
+    String accountId = event.getStreamId().substring(ACCOUNT_STREAM_PREFIX.length());
+    String previous = username == null ? usernamesByAccountId.remove(accountId)
+        : usernamesByAccountId.put(accountId, username);
+    if (previous != null) {
+      accountIdsByUsername.remove(previous, accountId);
+    }
+    if (username != null) {
+      accountIdsByUsername.put(username, accountId);
+    }
+    return true;
+  }
+
+  private void ensureLoaded() {
+    if (!loaded) {
+      synchronized (this) {
+        if (!loaded) {
+          long start = System.nanoTime();
+          String source = file != null && Files.exists(file) && load() ? file.toString() : "the event store";
+          long from = position;
+          readToEnd();
+          if (changesSinceCheckpoint > 0) {
+            flush();
+          }
+          loaded = true;
+          log.info("Loaded {} usernames from {} and caught up from position {} to {} in {} ms",
+              accountIdsByUsername.size(), source, from, position,
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+      }
+    }
+  }
+
+  private synchronized void catchUp() {
+    readToEnd();
+    checkpointIfDue();
+  }
+
+  private void readToEnd() {
+    for (;;) {
+      EventPage page = eventStore.readAllAfter(position, EventStore.DEFAULT_PAGE_SIZE);
+      // a page can be empty and still move forward, past records that are not events
+      if (page.getPosition() == position) {
+        return;
+      }
+      for (DomainEvent event : page.getEvents()) {
+        if (apply(event)) {
+          changesSinceCheckpoint++;
+        }
+      }
+      position = page.getPosition();
+    }
+  }
+
+  /**
+   * Loads the checkpoint.
+   *
+   * @return false if the file has no position or one past the end of the store, in which case it is ignored
+   */
+  private boolean load() {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    String savedPosition = properties.getProperty(POSITION_KEY);
+    if (savedPosition == null || Long.parseLong(savedPosition) > eventStore.lastPosition()) {
+      log.warn("Ignoring {}, it does not match the event store", file);
+      return false;
+    }
+    properties.stringPropertyNames().stream().filter(key -> key.startsWith(USERNAME_PREFIX)).forEach(key -> {
+      String username = key.substring(USERNAME_PREFIX.length());
+      String accountId = properties.getProperty(key);
+      accountIdsByUsername.put(username, accountId);
+      usernamesByAccountId.put(accountId, username);
+    });
+    position = Long.parseLong(savedPosition);
+    return true;
+  }
+
+  private void checkpointIfDue() {
+    if (changesSinceCheckpoint >= checkpointInterval) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    changesSinceCheckpoint = 0;
+    if (file == null) {
+      return;
+    }
+    Properties properties = new Properties();
+    properties.setProperty(POSITION_KEY, Long.toString(position));
+    accountIdsByUsername
+        .forEach((username, accountId) -> properties.setProperty(USERNAME_PREFIX + username, accountId));
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        properties.store(writer, "username to account id, up to the given position of the event store");
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
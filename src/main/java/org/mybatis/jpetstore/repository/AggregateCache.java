@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.mybatis.jpetstore.core.Snapshot;
+
+/**
+ * Bounded cache of replayed aggregate state, keyed by stream id.
+ * <p>
+ * Each entry is a {@link Snapshot} of the state and the revision it was taken at, so a reader only has to fetch the
+ * events recorded after that revision and callers never share a mutable aggregate. The least recently used entry is
+ * evicted once the cache is full, and entries older than the time to live are dropped when next read.
+ * <p>
+ * Reads take no lock: the entries live in a {@link ConcurrentHashMap} and a hit only stamps the entry with a tick of a
+ * counter. Eviction is kept apart from the reads; the one writer that takes the cache over its size sorts the stamps
+ * and drops the oldest entries, while other writers go on. The cache may briefly hold more entries than its size.
+ */
+public class AggregateCache {
+  private final int maxSize;
+  private final long ttlNanos;
+  private final LongSupplier clock;
+  private final Map<String, CachedState> entries = new ConcurrentHashMap<>();
+  private final AtomicLong ticks = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Instantiates a new cache.
+   *
+   * @param maxSize
+   *          the number of aggregates kept
+   * @param ttlMillis
+   *          how long an entry is served after it was stored
+   */
+  public AggregateCache(int maxSize, long ttlMillis) {
+    this(maxSize, ttlMillis, System::nanoTime);
+  }
+
+  AggregateCache(int maxSize, long ttlMillis, LongSupplier clock) {
+    this.maxSize = maxSize;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.clock = clock;
+  }
+
+  /**
+   * Gets the cached state of a stream.
+   *
+   * @param streamId
+   *          the stream id
+   *
+   * @return the state, or null if it is not cached or has expired
+   */
+  public Snapshot get(String streamId) {
+    CachedState entry = entries.get(streamId);
+    if (entry != null && clock.getAsLong() - entry.storedAt > ttlNanos) {
+      if (entries.remove(streamId, entry)) {
+        evictions.incrementAndGet();
+      }
+      entry = null;
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    entry.lastUsed = ticks.incrementAndGet();
+    hits.incrementAndGet();
+    return entry.snapshot;
+  }
+
+  /**
+   * Stores the state of a stream, unless a later revision of it is already cached.
+   *
+   * @param snapshot
+   *          the state
+   */
+  public void put(Snapshot snapshot) {
+    long storedAt = clock.getAsLong();
+    entries.compute(snapshot.getStreamId(), (streamId, entry) -> {
+      if (entry == null || entry.snapshot.getVersion() <= snapshot.getVersion()) {
+        return new CachedState(snapshot, storedAt, ticks.incrementAndGet());
+      }
+      return entry;
+    });
+    if (entries.size() > maxSize) {
+      evict();
+    }
+  }
+
+  public void invalidate(String streamId) {
+    entries.remove(streamId);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Drops the least recently used entries, down to a tenth below the size so a full cache is not scanned on every
+   * write. Only one writer evicts at a time; the others leave it to that one.
+   */
+  private void evict() {
+    if (!evicting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      int excess = entries.size() - (maxSize - maxSize / 10);
+      if (excess <= 0) {
+        return;
+      }
+      // the stamps are copied first, as readers keep moving them
+      List<CachedState> candidates = new ArrayList<>(entries.values());
+      long[] stamps = new long[candidates.size()];
+      for (int i = 0; i < stamps.length; i++) {
+        stamps[i] = candidates.get(i).lastUsed;
+      }
+      if (stamps.length == 0) {
+        return;
+      }
+      long[] sorted = stamps.clone();
+      Arrays.sort(sorted);
+      long newestEvicted = sorted[Math.min(excess, sorted.length) - 1];
+      for (int i = 0; i < stamps.length; i++) {
+        CachedState eldest = candidates.get(i);
+        if (stamps[i] <= newestEvicted && entries.remove(eldest.snapshot.getStreamId(), eldest)) {
+          evictions.incrementAndGet();
+        }
+      }
+    } finally {
+      evicting.set(false);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AggregateCache{size=" + size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+  }
+
+  private static final class CachedState {
+    private final Snapshot snapshot;
+    private final long storedAt;
+    private volatile long lastUsed;
+
+    CachedState(Snapshot snapshot, long storedAt, long lastUsed) {
+      this.snapshot = snapshot;
+      this.storedAt = storedAt;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+}
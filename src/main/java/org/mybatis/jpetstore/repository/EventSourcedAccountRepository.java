@@ -15,92 +15,82 @@
  */
 package org.mybatis.jpetstore.repository;
 
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toList;
-
-import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import org.mybatis.jpetstore.core.EventStore;
 import org.mybatis.jpetstore.core.event.DomainEvent;
 import org.mybatis.jpetstore.domain.Account;
+import org.mybatis.jpetstore.projection.UsernameIndex;
+
+public class EventSourcedAccountRepository extends EventSourcedRepository<Account> {
+  private static final int DEFAULT_SNAPSHOT_FREQUENCY = 50;
 
-public class EventSourcedAccountRepository {
-  private EventStore eventStore;
-  private Map<String, String> accountIdCache;
+  private final UsernameIndex usernameIndex;
 
   public EventSourcedAccountRepository(EventStore eventStore) {
-    this.eventStore = eventStore;
-    this.accountIdCache = new HashMap<>();
+    this(eventStore, new UsernameIndex(eventStore, null), DEFAULT_SNAPSHOT_FREQUENCY);
   }
 
-  public String save(Account account) {
-    String streamId = null;
-    for (DomainEvent e : account.getEvents()) {
-      try {
-        streamId = e.getStreamId();
-        eventStore.appendToStream(streamId, e);
-      } catch (Exception ex) {
-        ex.printStackTrace();
-      }
-    }
-    if (streamId != null) {
-      accountIdCache.put(account.getUsername(), account.getAccountId());
-    }
-    return streamId;
+  /**
+   * Instantiates a new repository.
+   *
+   * @param eventStore
+   *          the event store
+   * @param usernameIndex
+   *          the index used to find accounts by username
+   * @param snapshotFrequency
+   *          take a snapshot every time an account stream grows past a multiple of this many events, or 0 to never take
+   *          snapshots
+   */
+  public EventSourcedAccountRepository(EventStore eventStore, UsernameIndex usernameIndex, int snapshotFrequency) {
+    super(eventStore, Account.class, Account::new, snapshotFrequency);
+    this.usernameIndex = usernameIndex;
   }
 
   public Account findByUsernameAndPassword(String username, String password) {
-    String accountId = accountIdCache.get(username);
+    String accountId = usernameIndex.find(username);
     if (accountId == null) {
       return null;
     }
-    String streamId = Account.class.getName() + "." + accountId;
-    List<DomainEvent> events = eventStore.getStream(streamId);
-    Account account = new Account(accountId);
-    for (DomainEvent event : events) {
-      account.mutate(event);
-    }
-    if (account.getPassword().equals(password)) {
+    Account account = findBy(accountId);
+    if (password != null && password.equals(account.getPassword())) {
       return account;
     }
     return null;
   }
 
-  public List<Account> findAll() {
-    List<Account> accountList = new ArrayList<>();
-    List<DomainEvent> events = eventStore.getAllStream();
-
-    Map<String, List<DomainEvent>> eventsGroupByStreamId = events.stream()
-        .filter(event -> event.getEntityType().equals(Account.class.getName()))
-        .collect(groupingBy(DomainEvent::getStreamId, toList()));
-    eventsGroupByStreamId.forEach((streamId, stream) -> {
-      String[] streamSplitByDot = streamId.split("\\.");
-      String accountId = streamSplitByDot[streamSplitByDot.length - 1];
-      Account account = new Account(accountId);
-      stream.forEach(account::mutate);
-      accountList.add(account);
-    });
-
-    return accountList;
+  /**
+   * Asynchronous variant of {@link #findByUsernameAndPassword(String, String)}.
+   *
+   * @param username
+   *          the username
+   * @param password
+   *          the password
+   *
+   * @return the account, or null if the username is unknown or the password does not match
+   */
+  public CompletableFuture<Account> findByUsernameAndPasswordAsync(String username, String password) {
+    String accountId = usernameIndex.find(username);
+    if (accountId == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return findByAsync(accountId)
+        .thenApply(account -> password != null && password.equals(account.getPassword()) ? account : null);
   }
 
-  public Account findBy(String accountId) {
-    String streamId = Account.class.getName() + "." + accountId;
-    List<DomainEvent> events = eventStore.getStream(streamId);
-    Account account = new Account(accountId);
-    for (DomainEvent event : events) {
-      account.mutate(event);
-    }
-    return account;
+  /**
+   * Runs the command as a unit of work, so all the attributes it changes are stored as one event.
+   */
+  @Override
+  protected void execute(Account account, Consumer<Account> command) {
+    account.update(command);
   }
 
-  public Account findBy(String accountId, long version) {
-    String streamId = Account.class.getName() + "." + accountId;
-    List<DomainEvent> events = eventStore.getStream(streamId, version);
-    Account account = new Account(accountId);
-    for (DomainEvent event : events) {
-      account.mutate(event);
-    }
-    return account;
+  @Override
+  protected void afterAppend(Account account, List<DomainEvent> events) {
+    usernameIndex.applyAll(events);
   }
+
 }
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.repository;
+
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.domain.Cart;
+import org.mybatis.jpetstore.service.CatalogService;
+
+/**
+ * Stores the shopping carts in the event store, so the session only has to remember the cart id.
+ * <p>
+ * Carts are short lived and their state holds whole {@link org.mybatis.jpetstore.domain.Item} objects, so they are
+ * never snapshotted; a hot {@link AggregateCache} is what keeps reading them cheap.
+ */
+public class EventSourcedCartRepository extends EventSourcedRepository<Cart> {
+
+  public EventSourcedCartRepository(EventStore eventStore) {
+    super(eventStore, Cart.class, Cart::new, 0);
+  }
+
+  /**
+   * Instantiates a new repository.
+   *
+   * @param eventStore
+   *          the event store
+   * @param catalogService
+   *          the catalog describing the items recorded in the carts
+   */
+  public EventSourcedCartRepository(EventStore eventStore, CatalogService catalogService) {
+    super(eventStore, Cart.class, id -> new Cart(id, catalogService::getItem), 0);
+  }
+
+}
@@ -0,0 +1,431 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.mybatis.jpetstore.core.AggregateRoot;
+import org.mybatis.jpetstore.core.ConcurrencyException;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.Futures;
+import org.mybatis.jpetstore.core.Snapshot;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores and rebuilds event sourced entities of one type: the pending events of an entity are appended in a single
+ * write guarded by its version, snapshots are taken every so many events, and replayed entities can be kept in an
+ * {@link AggregateCache} so reading one again only fetches the events recorded since.
+ * <p>
+ * Subclasses add the lookups specific to their type, and can react to the appended events in
+ * {@link #afterAppend(AggregateRoot, List)}. Others can be told of every append with
+ * {@link #addAppendListener(Runnable)}.
+ *
+ * @param <T>
+ *          the entity type
+ */
+public class EventSourcedRepository<T extends AggregateRoot> {
+  private static final Logger log = LoggerFactory.getLogger(EventSourcedRepository.class);
+  private static final int DEFAULT_MAX_RETRIES = 3;
+  private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+  protected final EventStore eventStore;
+  private final Class<T> type;
+  private final Function<String, T> factory;
+  private final int snapshotFrequency;
+  private int maxRetries = DEFAULT_MAX_RETRIES;
+  private int pageSize = EventStore.DEFAULT_PAGE_SIZE;
+  private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+  private AggregateCache cache;
+  private final List<Runnable> appendListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Instantiates a new repository.
+   *
+   * @param eventStore
+   *          the event store
+   * @param type
+   *          the entity type, naming its streams
+   * @param factory
+   *          creates an empty entity with the given id, without raising any event, to replay its stream into
+   * @param snapshotFrequency
+   *          take a snapshot every time a stream grows past a multiple of this many events, or 0 to never take
+   *          snapshots
+   */
+  public EventSourcedRepository(EventStore eventStore, Class<T> type, Function<String, T> factory,
+      int snapshotFrequency) {
+    this.eventStore = eventStore;
+    this.type = type;
+    this.factory = factory;
+    this.snapshotFrequency = snapshotFrequency;
+  }
+
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public void setTimeoutMillis(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Keeps the replayed entities in the given cache, so reading one again only fetches the events recorded since.
+   *
+   * @param cache
+   *          the cache, or null to rebuild every entity from the store
+   */
+  public void setCache(AggregateCache cache) {
+    this.cache = cache;
+  }
+
+  public AggregateCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Registers a callback run after every successful append, such as a subscription to wake up so it reads the new
+   * events right away.
+   *
+   * @param listener
+   *          the callback
+   */
+  public void addAppendListener(Runnable listener) {
+    appendListeners.add(listener);
+  }
+
+  /**
+   * Appends the pending events of the entity, expecting its stream to still be at the version it was loaded at.
+   *
+   * @param aggregate
+   *          the entity
+   *
+   * @return the stream id, or null if there was nothing to save
+   *
+   * @throws ConcurrencyException
+   *           if the stream was written by someone else since the entity was loaded
+   * @throws RuntimeException
+   *           if the store failed to append the events, which are then still pending on the entity
+   */
+  public String save(T aggregate) {
+    if (aggregate.getEvents().isEmpty()) {
+      return null;
+    }
+    List<DomainEvent> events = new ArrayList<>(aggregate.getEvents());
+    String streamId = aggregate.getStreamId();
+    long previousVersion = aggregate.getVersion();
+    try {
+      aggregate.setVersion(eventStore.appendToStream(streamId, previousVersion, events));
+    } catch (ConcurrencyException ex) {
+      if (cache != null) {
+        cache.invalidate(streamId);
+      }
+      throw ex;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Append to " + streamId + " interrupted", ex);
+    } catch (ExecutionException ex) {
+      throw new RuntimeException("Append to " + streamId + " failed", ex.getCause());
+    }
+    afterAppend(aggregate, events);
+    appendListeners.forEach(Runnable::run);
+    aggregate.reset();
+    cache(aggregate);
+    if (isSnapshotDue(previousVersion, aggregate.getVersion())) {
+      try {
+        eventStore.saveSnapshot(new Snapshot(streamId, aggregate.getVersion(), aggregate.snapshot()));
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        log.warn("Snapshot of {} at version {} interrupted", streamId, aggregate.getVersion());
+      } catch (Exception ex) {
+        // the events are stored, the next snapshot will catch up
+        log.warn("Snapshot of {} at version {} failed", streamId, aggregate.getVersion(), ex);
+      }
+    }
+    return streamId;
+  }
+
+  /**
+   * Loads the entity, applies the command and saves it. When another writer got there first the entity is reloaded and
+   * the command applied again, up to the configured number of retries.
+   *
+   * @param id
+   *          the entity id
+   * @param command
+   *          the changes to apply to the freshly loaded entity
+   *
+   * @return the saved entity
+   *
+   * @throws ConcurrencyException
+   *           if the conflict persists after all retries
+   * @throws RuntimeException
+   *           if the store failed to append the events
+   */
+  public T update(String id, Consumer<T> command) {
+    for (int attempt = 0;; attempt++) {
+      T aggregate = findBy(id);
+      execute(aggregate, command);
+      try {
+        save(aggregate);
+        return aggregate;
+      } catch (ConcurrencyException e) {
+        if (attempt >= maxRetries) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Rebuilds every entity of the type by folding over the store one page at a time, so memory grows with the number of
+   * entities rather than with the number of events.
+   *
+   * @return the entities, in the order they were created
+   */
+  public List<T> findAll() {
+    String prefix = AggregateRoot.streamId(type, "");
+    Map<String, T> aggregates = new LinkedHashMap<>();
+    try (Stream<DomainEvent> events = eventStore.readAll(pageSize)) {
+      events.filter(event -> event.getEntityType().equals(type.getName())).forEach(event -> {
+        T aggregate = aggregates.computeIfAbsent(event.getStreamId(),
+            streamId -> factory.apply(streamId.substring(prefix.length())));
+        aggregate.mutate(event);
+        aggregate.setVersion(revisionOf(event, aggregate.getVersion()));
+      });
+    }
+    return new ArrayList<>(aggregates.values());
+  }
+
+  /**
+   * Rebuilds the entity from its latest snapshot, if any, and the events recorded after it.
+   *
+   * @param id
+   *          the entity id
+   *
+   * @return the entity
+   */
+  public T findBy(String id) {
+    String streamId = AggregateRoot.streamId(type, id);
+    Snapshot cached = cache == null ? null : cache.get(streamId);
+    if (cached != null) {
+      return cache(replay(id, cached, eventStore.getStreamAfter(streamId, cached.getVersion())));
+    }
+    Snapshot snapshot = snapshotFrequency > 0 ? eventStore.getSnapshot(streamId) : null;
+    List<DomainEvent> events = snapshot == null ? eventStore.getStream(streamId)
+        : eventStore.getStreamAfter(streamId, snapshot.getVersion());
+    return cache(replay(id, snapshot, events));
+  }
+
+  /**
+   * Asynchronous variant of {@link #findBy(String)}, reading the snapshot and then the events without blocking the
+   * caller.
+   *
+   * @param id
+   *          the entity id
+   *
+   * @return the entity, or a future failed with a {@link java.util.concurrent.TimeoutException} if the store did not
+   *         answer within the configured timeout
+   */
+  public CompletableFuture<T> findByAsync(String id) {
+    String streamId = AggregateRoot.streamId(type, id);
+    Snapshot cached = cache == null ? null : cache.get(streamId);
+    CompletableFuture<Snapshot> snapshot = cached != null ? CompletableFuture.completedFuture(cached)
+        : snapshotFrequency > 0 ? eventStore.getSnapshotAsync(streamId) : CompletableFuture.completedFuture(null);
+    CompletableFuture<T> aggregate = snapshot
+        .thenCompose(s -> eventStore.readStreamAsync(streamId, s == null ? EventStore.NO_STREAM : s.getVersion())
+            .thenApply(events -> cache(replay(id, s, events))));
+    return Futures.withTimeout(aggregate, timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Rebuilds the entity as it was right after the event at the given revision, starting from the most recent snapshot
+   * or cached state not past it and reading forward only the events up to the revision.
+   *
+   * @param id
+   *          the entity id
+   * @param version
+   *          the revision of the last event to apply
+   *
+   * @return the entity, whose version is the revision actually reached if the stream is shorter
+   */
+  public T findBy(String id, long version) {
+    String streamId = AggregateRoot.streamId(type, id);
+    Snapshot base = nearestSnapshot(streamId, version);
+    T aggregate = replay(id, base, Collections.emptyList());
+    while (aggregate.getVersion() < version) {
+      long from = aggregate.getVersion();
+      int maxCount = (int) Math.min(pageSize, version - from);
+      try (Stream<DomainEvent> events = eventStore.readStream(streamId, from, maxCount)) {
+        for (Iterator<DomainEvent> it = events.limit(maxCount).iterator(); it.hasNext();) {
+          DomainEvent event = it.next();
+          long revision = revisionOf(event, aggregate.getVersion());
+          if (revision > version) {
+            // skipped events let the page run past the revision
+            return aggregate;
+          }
+          aggregate.mutate(event);
+          aggregate.setVersion(revision);
+        }
+      }
+      if (aggregate.getVersion() == from) {
+        break;
+      }
+    }
+    return aggregate;
+  }
+
+  /**
+   * Rebuilds the entity as it was at the given time, from the events recorded up to then. The stored snapshot is used
+   * when the event it was taken at is not later than the given time.
+   *
+   * @param id
+   *          the entity id
+   * @param timestamp
+   *          the time, in milliseconds since the epoch
+   *
+   * @return the entity, with the version of the last event applied
+   */
+  public T findAsOf(String id, long timestamp) {
+    String streamId = AggregateRoot.streamId(type, id);
+    Snapshot snapshot = snapshotFrequency > 0 ? eventStore.getSnapshot(streamId) : null;
+    if (snapshot != null && !isRecordedBy(streamId, snapshot.getVersion(), timestamp)) {
+      snapshot = null;
+    }
+    T aggregate = replay(id, snapshot, Collections.emptyList());
+    try (Stream<DomainEvent> events = eventStore.readStream(streamId, aggregate.getVersion(), pageSize)) {
+      for (Iterator<DomainEvent> it = events.iterator(); it.hasNext();) {
+        DomainEvent event = it.next();
+        if (event.getTimestamp() > timestamp) {
+          break;
+        }
+        aggregate.mutate(event);
+        aggregate.setVersion(revisionOf(event, aggregate.getVersion()));
+      }
+    }
+    return aggregate;
+  }
+
+  /**
+   * Picks the cached state or stored snapshot closest to, but not past, the given revision.
+   */
+  private Snapshot nearestSnapshot(String streamId, long version) {
+    Snapshot nearest = null;
+    Snapshot cached = cache == null ? null : cache.get(streamId);
+    if (cached != null && cached.getVersion() <= version) {
+      nearest = cached;
+    }
+    Snapshot stored = snapshotFrequency > 0 ? eventStore.getSnapshot(streamId) : null;
+    if (stored != null && stored.getVersion() <= version
+        && (nearest == null || stored.getVersion() > nearest.getVersion())) {
+      nearest = stored;
+    }
+    return nearest;
+  }
+
+  private boolean isRecordedBy(String streamId, long version, long timestamp) {
+    try (Stream<DomainEvent> events = eventStore.readStream(streamId, version - 1, 1)) {
+      return events.limit(1).allMatch(event -> event.getTimestamp() <= timestamp);
+    }
+  }
+
+  /**
+   * Applies a command to a freshly loaded entity in {@link #update(String, Consumer)}. Subclasses can override it to
+   * run the command as a unit of work of their entity.
+   *
+   * @param aggregate
+   *          the entity
+   * @param command
+   *          the command
+   */
+  protected void execute(T aggregate, Consumer<T> command) {
+    command.accept(aggregate);
+  }
+
+  /**
+   * Called once the events of an entity are appended, before they are cleared from it. Does nothing by default.
+   *
+   * @param aggregate
+   *          the entity
+   * @param events
+   *          the appended events
+   */
+  protected void afterAppend(T aggregate, List<DomainEvent> events) {
+  }
+
+  /**
+   * Tells whether an append that moved a stream from one version to the other should be followed by a snapshot.
+   *
+   * @param previousVersion
+   *          the version before the append
+   * @param version
+   *          the version after the append
+   *
+   * @return true to take a snapshot
+   */
+  protected boolean isSnapshotDue(long previousVersion, long version) {
+    return snapshotFrequency > 0 && (version + 1) / snapshotFrequency > (previousVersion + 1) / snapshotFrequency;
+  }
+
+  private T replay(String id, Snapshot snapshot, List<DomainEvent> events) {
+    T aggregate = factory.apply(id);
+    if (snapshot != null) {
+      aggregate.restore(snapshot.getState());
+    }
+    long version = snapshot == null ? EventStore.NO_STREAM : snapshot.getVersion();
+    for (DomainEvent event : events) {
+      aggregate.mutate(event);
+      version = revisionOf(event, version);
+    }
+    aggregate.setVersion(version);
+    return aggregate;
+  }
+
+  /**
+   * Gets the revision the store read the event at, which is past the previous one by more than one when events of
+   * unknown types were skipped in between. Events the store did not number are taken to follow the previous one.
+   */
+  private static long revisionOf(DomainEvent event, long previous) {
+    return event.getRevision() >= 0 ? event.getRevision() : previous + 1;
+  }
+
+  /**
+   * Stores the state of the entity in the cache, if any. The cache holds a copy, so callers remain free to change the
+   * entity they were given.
+   */
+  private T cache(T aggregate) {
+    if (cache != null && aggregate.getVersion() != EventStore.NO_STREAM) {
+      cache.put(new Snapshot(aggregate.getStreamId(), aggregate.getVersion(), aggregate.snapshot()));
+    }
+    return aggregate;
+  }
+
+}
@@ -15,17 +15,16 @@
  */
 package org.mybatis.jpetstore.service;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.mybatis.jpetstore.domain.Item;
+import org.mybatis.jpetstore.domain.LineItem;
 import org.mybatis.jpetstore.domain.Order;
-import org.mybatis.jpetstore.domain.Sequence;
 import org.mybatis.jpetstore.mapper.ItemMapper;
 import org.mybatis.jpetstore.mapper.LineItemMapper;
 import org.mybatis.jpetstore.mapper.OrderMapper;
-import org.mybatis.jpetstore.mapper.SequenceMapper;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -39,19 +38,20 @@ public class OrderService {
 
   private final ItemMapper itemMapper;
   private final OrderMapper orderMapper;
-  private final SequenceMapper sequenceMapper;
+  private final SequenceAllocator sequenceAllocator;
   private final LineItemMapper lineItemMapper;
 
-  public OrderService(ItemMapper itemMapper, OrderMapper orderMapper, SequenceMapper sequenceMapper,
+  public OrderService(ItemMapper itemMapper, OrderMapper orderMapper, SequenceAllocator sequenceAllocator,
       LineItemMapper lineItemMapper) {
     this.itemMapper = itemMapper;
     this.orderMapper = orderMapper;
-    this.sequenceMapper = sequenceMapper;
+    this.sequenceAllocator = sequenceAllocator;
     this.lineItemMapper = lineItemMapper;
   }
 
   /**
-   * Insert order.
+   * Insert order. The inventory of all the items is updated by one statement and the line items are inserted by
+   * another, so the number of statements does not grow with the size of the order.
    *
    * @param order
    *          the order
@@ -59,21 +59,19 @@ public class OrderService {
   @Transactional
   public void insertOrder(Order order) {
     order.setOrderId(getNextId("ordernum"));
-    order.getLineItems().forEach(lineItem -> {
-      String itemId = lineItem.getItemId();
-      Integer increment = lineItem.getQuantity();
-      Map<String, Object> param = new HashMap<>(2);
-      param.put("itemId", itemId);
-      param.put("increment", increment);
-      itemMapper.updateInventoryQuantity(param);
-    });
+    List<LineItem> lineItems = order.getLineItems();
+    if (!lineItems.isEmpty()) {
+      Map<String, Integer> increments = new LinkedHashMap<>();
+      lineItems.forEach(lineItem -> increments.merge(lineItem.getItemId(), lineItem.getQuantity(), Integer::sum));
+      itemMapper.updateInventoryQuantities(increments);
+    }
 
     orderMapper.insertOrder(order);
     orderMapper.insertOrderStatus(order);
-    order.getLineItems().forEach(lineItem -> {
-      lineItem.setOrderId(order.getOrderId());
-      lineItemMapper.insertLineItem(lineItem);
-    });
+    if (!lineItems.isEmpty()) {
+      lineItems.forEach(lineItem -> lineItem.setOrderId(order.getOrderId()));
+      lineItemMapper.insertLineItems(lineItems);
+    }
   }
 
   /**
@@ -111,7 +109,7 @@ public class OrderService {
   }
 
   /**
-   * Gets the next id.
+   * Gets the next id, from the block of ids the allocator has reserved.
    *
    * @param name
    *          the name
@@ -119,14 +117,7 @@ public class OrderService {
    * @return the next id
    */
   public int getNextId(String name) {
-    Sequence sequence = sequenceMapper.getSequence(new Sequence(name, -1));
-    if (sequence == null) {
-      throw new RuntimeException(
-          "Error: A null sequence was returned from the database (could not get next " + name + " sequence).");
-    }
-    Sequence parameterObject = new Sequence(name, sequence.getNextId() + 1);
-    sequenceMapper.updateSequence(parameterObject);
-    return sequence.getNextId();
+    return sequenceAllocator.nextId(name);
   }
 
 }
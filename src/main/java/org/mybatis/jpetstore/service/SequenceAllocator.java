@@ -0,0 +1,133 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mybatis.jpetstore.domain.Sequence;
+import org.mybatis.jpetstore.mapper.SequenceMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Hands out the ids of the {@code SEQUENCE} table from blocks reserved in advance (hi/lo), so the shared row is written
+ * once per block instead of once per id.
+ * <p>
+ * A block is reserved by a single {@code UPDATE} adding the block size to the row, in a transaction of its own, so the
+ * row is locked only for that statement and never for the rest of a checkout. Ids are then taken from memory with an
+ * {@link AtomicLong}. The ids left in a block when the application stops are never used.
+ */
+public class SequenceAllocator {
+  private static final int DEFAULT_BLOCK_SIZE = 50;
+
+  private final SequenceMapper sequenceMapper;
+  private final TransactionTemplate transactionTemplate;
+  private final Map<String, Allocation> allocations = new ConcurrentHashMap<>();
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+
+  public SequenceAllocator(SequenceMapper sequenceMapper, PlatformTransactionManager transactionManager) {
+    this.sequenceMapper = sequenceMapper;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  /**
+   * Sets the number of ids reserved at a time. Larger blocks touch the database less often but leave bigger gaps behind
+   * on restart.
+   *
+   * @param blockSize
+   *          the block size, at least 1
+   */
+  public void setBlockSize(int blockSize) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be at least 1: " + blockSize);
+    }
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Gets the next id of a sequence.
+   *
+   * @param name
+   *          the sequence name
+   *
+   * @return the id
+   */
+  public int nextId(String name) {
+    return Math.toIntExact(allocations.computeIfAbsent(name, Allocation::new).next());
+  }
+
+  /**
+   * Reserves the next block of a sequence.
+   *
+   * @return the block, from its first id included to its last id excluded
+   */
+  private Block reserve(String name) {
+    int size = blockSize;
+    Integer end = transactionTemplate.execute(status -> {
+      if (sequenceMapper.reserveBlock(name, size) == 0) {
+        return null;
+      }
+      return sequenceMapper.getSequence(new Sequence(name, -1)).getNextId();
+    });
+    if (end == null) {
+      throw new RuntimeException(
+          "Error: A null sequence was returned from the database (could not get next " + name + " sequence).");
+    }
+    return new Block(end - size, end);
+  }
+
+  private final class Allocation {
+    private final String name;
+    private volatile Block block;
+
+    Allocation(String name) {
+      this.name = name;
+    }
+
+    long next() {
+      for (;;) {
+        Block current = block;
+        if (current != null) {
+          long id = current.next.getAndIncrement();
+          if (id < current.end) {
+            return id;
+          }
+        }
+        // only one thread reserves the next block, the others wait for it and then take from it
+        synchronized (this) {
+          if (block == current) {
+            block = reserve(name);
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Block {
+    private final AtomicLong next;
+    private final long end;
+
+    Block(long start, long end) {
+      this.next = new AtomicLong(start);
+      this.end = end;
+    }
+  }
+
+}
@@ -18,14 +18,13 @@ package org.mybatis.jpetstore.web.actions;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
 
 import javax.servlet.http.HttpSession;
 
 import net.sourceforge.stripes.action.*;
 import net.sourceforge.stripes.integration.spring.SpringBean;
 
-import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.ConcurrencyException;
 import org.mybatis.jpetstore.domain.Account;
 import org.mybatis.jpetstore.domain.Product;
 import org.mybatis.jpetstore.repository.EventSourcedAccountRepository;
@@ -54,9 +53,8 @@ public class AccountActionBean extends AbstractActionBean {
   @SpringBean
   private transient CatalogService catalogService;
 
-  private final static EventStore eventStore = new EventStore(
-      "esdb://127.0.0.1:2113?tls=false&keepAliveTimeout=10000&keepAliveInterval=10000");
-  private final static EventSourcedAccountRepository repository = new EventSourcedAccountRepository(eventStore);
+  @SpringBean
+  private transient EventSourcedAccountRepository repository;
 
   private Account account = new Account();
   private List<Product> myList;
@@ -130,8 +128,15 @@ public class AccountActionBean extends AbstractActionBean {
   // return new RedirectResolution(CatalogActionBean.class);
   // }
   public Resolution newAccount() {
-    this.repository.save(account);
-    account = this.repository.findBy(account.getAccountId());
+    // the form was bound field by field, record the whole of it as one change of a fresh account
+    Account created = new Account();
+    created.update(newAccount -> {
+      newAccount.setUsername(account.getUsername());
+      copyForm(newAccount);
+    });
+    repository.save(created);
+    // the saved account already holds everything recorded, there is nothing to read back
+    account = created;
     myList = catalogService.getProductListByCategory(account.getFavouriteCategoryId());
     authenticated = true;
     return new RedirectResolution(CatalogActionBean.class);
@@ -158,26 +163,33 @@ public class AccountActionBean extends AbstractActionBean {
   // return new RedirectResolution(CatalogActionBean.class);
   // }
   public Resolution editAccount() {
-    Account queryAccount = repository.findBy(account.getAccountId());
-    queryAccount.setPassword(account.getPassword());
-    queryAccount.setFirstName(account.getFirstName());
-    queryAccount.setLastName(account.getLastName());
-    queryAccount.setEmail(account.getEmail());
-    queryAccount.setPhone(account.getPhone());
-    queryAccount.setAddress1(account.getAddress1());
-    queryAccount.setAddress2(account.getAddress2());
-    queryAccount.setCity(account.getCity());
-    queryAccount.setState(account.getState());
-    queryAccount.setZip(account.getZip());
-    queryAccount.setCountry(account.getCountry());
-    queryAccount.setLanguagePreference(account.getLanguagePreference());
-    queryAccount.setFavouriteCategoryId(account.getFavouriteCategoryId());
-    queryAccount.setListOption(account.isListOption());
-    queryAccount.setBannerOption(account.isBannerOption());
-    repository.save(queryAccount);
+    try {
+      repository.update(account.getAccountId(), this::copyForm);
+    } catch (ConcurrencyException e) {
+      setMessage("Your account was changed by another request. Please try again.");
+      return new ForwardResolution(EDIT_ACCOUNT);
+    }
     return new RedirectResolution(CatalogActionBean.class);
   }
 
+  private void copyForm(Account target) {
+    target.setPassword(account.getPassword());
+    target.setFirstName(account.getFirstName());
+    target.setLastName(account.getLastName());
+    target.setEmail(account.getEmail());
+    target.setPhone(account.getPhone());
+    target.setAddress1(account.getAddress1());
+    target.setAddress2(account.getAddress2());
+    target.setCity(account.getCity());
+    target.setState(account.getState());
+    target.setZip(account.getZip());
+    target.setCountry(account.getCountry());
+    target.setLanguagePreference(account.getLanguagePreference());
+    target.setFavouriteCategoryId(account.getFavouriteCategoryId());
+    target.setListOption(account.isListOption());
+    target.setBannerOption(account.isBannerOption());
+  }
+
   /**
    * Signon form.
    *
@@ -228,12 +240,10 @@ public class AccountActionBean extends AbstractActionBean {
   // }
   // }
   public Resolution signon() {
-    Optional<Account> queryAccount = repository.findAll().stream()
-        .filter(account1 -> account1.getUsername().equals(account.getUsername())
-            && account1.getPassword().equals(account.getPassword()))
-        .findFirst();
-    if (queryAccount.isPresent()) {
-      account = queryAccount.get();
+    // the projected tables lag behind the store, so a password changed since could still be accepted there
+    Account queryAccount = repository.findByUsernameAndPassword(account.getUsername(), account.getPassword());
+    if (queryAccount != null) {
+      account = queryAccount;
       account.setPassword(null);
       myList = catalogService.getProductListByCategory(account.getFavouriteCategoryId());
       authenticated = true;
@@ -15,7 +15,8 @@
  */
 package org.mybatis.jpetstore.web.actions;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.UUID;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -27,10 +28,14 @@ import net.sourceforge.stripes.integration.spring.SpringBean;
 import org.mybatis.jpetstore.domain.Cart;
 import org.mybatis.jpetstore.domain.CartItem;
 import org.mybatis.jpetstore.domain.Item;
+import org.mybatis.jpetstore.repository.EventSourcedCartRepository;
 import org.mybatis.jpetstore.service.CatalogService;
 
 /**
  * The Class CartActionBean.
+ * <p>
+ * The cart itself lives in the event store; the session only keeps its id, so it stays small and any node can serve the
+ * next request.
  *
  * @author Eduardo Macarron
  */
@@ -45,15 +50,20 @@ public class CartActionBean extends AbstractActionBean {
   @SpringBean
   private transient CatalogService catalogService;
 
-  private Cart cart = new Cart();
+  @SpringBean
+  private transient EventSourcedCartRepository cartRepository;
+
+  private String cartId = UUID.randomUUID().toString();
+  // the cart as of the current request, reloaded by every event handler
+  private transient Cart cart;
   private String workingItemId;
 
-  public Cart getCart() {
-    return cart;
+  public String getCartId() {
+    return cartId;
   }
 
-  public void setCart(Cart cart) {
-    this.cart = cart;
+  public Cart getCart() {
+    return cart == null ? loadCart() : cart;
   }
 
   public void setWorkingItemId(String workingItemId) {
@@ -66,16 +76,20 @@ public class CartActionBean extends AbstractActionBean {
    * @return the resolution
    */
   public Resolution addItemToCart() {
-    if (cart.containsItemId(workingItemId)) {
-      cart.incrementQuantityByItemId(workingItemId);
-    } else {
-      // isInStock is a "real-time" property that must be updated
-      // every time an item is added to the cart, even if other
-      // item details are cached.
-      boolean isInStock = catalogService.isItemInStock(workingItemId);
-      Item item = catalogService.getItem(workingItemId);
-      cart.addItem(item, isInStock);
-    }
+    String itemId = workingItemId;
+    // checked against the cart being updated, so a retry after a concurrent change sees that change
+    cart = cartRepository.update(cartId, c -> {
+      if (c.containsItemId(itemId)) {
+        c.incrementQuantityByItemId(itemId);
+      } else {
+        // isInStock is a "real-time" property that must be updated
+        // every time an item is added to the cart, even if other
+        // item details are cached.
+        boolean isInStock = catalogService.isItemInStock(itemId);
+        Item item = catalogService.getItem(itemId);
+        c.addItem(item, isInStock);
+      }
+    });
 
     return new ForwardResolution(VIEW_CART);
   }
@@ -86,13 +100,13 @@ public class CartActionBean extends AbstractActionBean {
    * @return the resolution
    */
   public Resolution removeItemFromCart() {
+    String itemId = workingItemId;
 
-    Item item = cart.removeItemById(workingItemId);
-
-    if (item == null) {
+    if (!loadCart().containsItemId(itemId)) {
       setMessage("Attempted to remove null CartItem from Cart.");
       return new ForwardResolution(ERROR);
     } else {
+      cart = cartRepository.update(cartId, c -> c.removeItemById(itemId));
       return new ForwardResolution(VIEW_CART);
     }
   }
@@ -105,35 +119,47 @@ public class CartActionBean extends AbstractActionBean {
   public Resolution updateCartQuantities() {
     HttpServletRequest request = context.getRequest();
 
-    Iterator<CartItem> cartItems = getCart().getAllCartItems();
-    while (cartItems.hasNext()) {
-      CartItem cartItem = cartItems.next();
-      String itemId = cartItem.getItem().getItemId();
-      try {
-        int quantity = Integer.parseInt(request.getParameter(itemId));
-        getCart().setQuantityByItemId(itemId, quantity);
-        if (quantity < 1) {
-          cartItems.remove();
+    cart = cartRepository.update(cartId, c -> {
+      for (CartItem cartItem : new ArrayList<>(c.getCartItemList())) {
+        String itemId = cartItem.getItem().getItemId();
+        try {
+          int quantity = Integer.parseInt(request.getParameter(itemId));
+          if (quantity < 1) {
+            c.removeItemById(itemId);
+          } else {
+            c.setQuantityByItemId(itemId, quantity);
+          }
+        } catch (Exception e) {
+          // ignore parse exceptions on purpose
         }
-      } catch (Exception e) {
-        // ignore parse exceptions on purpose
       }
-    }
+    });
 
     return new ForwardResolution(VIEW_CART);
   }
 
   public ForwardResolution viewCart() {
+    loadCart();
     return new ForwardResolution(VIEW_CART);
   }
 
   public ForwardResolution checkOut() {
+    loadCart();
     return new ForwardResolution(CHECK_OUT);
   }
 
+  /**
+   * Starts a new, empty cart. The events of the previous one stay in the store.
+   */
   public void clear() {
-    cart = new Cart();
+    cartId = UUID.randomUUID().toString();
+    cart = null;
     workingItemId = null;
   }
 
+  private Cart loadCart() {
+    cart = cartRepository.findBy(cartId);
+    return cart;
+  }
+
 }
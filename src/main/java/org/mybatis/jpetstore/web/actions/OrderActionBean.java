@@ -27,6 +27,7 @@ import net.sourceforge.stripes.action.SessionScope;
 import net.sourceforge.stripes.integration.spring.SpringBean;
 
 import org.mybatis.jpetstore.domain.Order;
+import org.mybatis.jpetstore.repository.EventSourcedCartRepository;
 import org.mybatis.jpetstore.service.OrderService;
 
 /**
@@ -50,6 +51,9 @@ public class OrderActionBean extends AbstractActionBean {
   @SpringBean
   private transient OrderService orderService;
 
+  @SpringBean
+  private transient EventSourcedCartRepository cartRepository;
+
   private Order order = new Order();
   private boolean shippingAddressRequired;
   private boolean confirmed;
@@ -126,7 +130,8 @@ public class OrderActionBean extends AbstractActionBean {
       setMessage("You must sign on before attempting to check out.  Please sign on and try checking out again.");
       return new ForwardResolution(AccountActionBean.class);
     } else if (cartBean != null) {
-      order.initOrder(accountBean.getAccount(), cartBean.getCart());
+      // the cart bean may come from a session restored on another node, without its repository
+      order.initOrder(accountBean.getAccount(), cartRepository.findBy(cartBean.getCartId()));
       return new ForwardResolution(NEW_ORDER);
     } else {
       setMessage("An order could not be created because a cart could not be found.");
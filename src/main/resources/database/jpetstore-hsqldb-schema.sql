@@ -58,6 +58,14 @@ create table profile (
     constraint pk_profile primary key (userid)
 );
 
+create table accountstream (
+    accountid varchar(80) not null,
+    userid varchar(80) not null,
+    constraint pk_accountstream primary key (accountid)
+);
+
+create unique index accountStreamUser on accountstream (userid);
+
 create table bannerdata (
     favcategory varchar(80) not null,
     bannername varchar(255)  null,
@@ -163,3 +171,9 @@ CREATE TABLE sequence
     nextid             int          not null,
     constraint pk_sequence primary key (name)
 );
+
+create table subscription (
+    name varchar(80) not null,
+    lastposition bigint not null,
+    constraint pk_subscription primary key (name)
+);
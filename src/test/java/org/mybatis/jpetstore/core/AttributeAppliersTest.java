@@ -0,0 +1,65 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.lang.invoke.MethodHandles;
+
+import org.junit.jupiter.api.Test;
+
+class AttributeAppliersTest {
+
+  private final AttributeAppliers<Pet> appliers = AttributeAppliers.of(Pet.lookup(), Pet.class, "name", "age",
+      "vaccinated");
+
+  @Test
+  void shouldApplyAttributesToPrivateFields() {
+    // given
+    Pet pet = new Pet();
+
+    // when
+    boolean name = appliers.apply(pet, "name", "Rex");
+    boolean age = appliers.apply(pet, "age", 3);
+    boolean vaccinated = appliers.apply(pet, "vaccinated", true);
+    boolean unknown = appliers.apply(pet, "colour", "brown");
+
+    // then
+    assertThat(name && age && vaccinated).isTrue();
+    assertThat(unknown).isFalse();
+    assertThat(appliers.read(pet)).containsExactly(entry("name", "Rex"), entry("age", (Object) 3),
+        entry("vaccinated", (Object) true));
+  }
+
+  @Test
+  void shouldRejectAttributesWithoutAField() {
+    assertThatThrownBy(() -> AttributeAppliers.of(Pet.lookup(), Pet.class, "colour"))
+        .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("colour");
+  }
+
+  static class Pet {
+    private String name;
+    private int age;
+    private boolean vaccinated;
+
+    static MethodHandles.Lookup lookup() {
+      return MethodHandles.lookup();
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.domain.Account;
+
+class BinaryEventCodecTest {
+
+  private final BinaryEventCodec codec = new BinaryEventCodec(EventTypeRegistry.defaults(), Account.EVENT_DICTIONARY);
+  private final JsonEventCodec json = new JsonEventCodec();
+
+  @Test
+  void shouldRoundTripAccountEventsInFewerBytesThanJson() throws Exception {
+    // given
+    Account account = new Account();
+    account.setUsername("j2ee");
+    account.setEmail("yourname@yourdomain.com");
+    account.setStatus("OK");
+    account.setListOption(true);
+    account.setBannerOption(false);
+    account.setBannerName(null);
+    List<DomainEvent> events = new ArrayList<>(account.getEvents());
+
+    for (DomainEvent event : events) {
+      // when
+      byte[] binary = codec.encode(event);
+      DomainEvent decoded = codec.decode(binary);
+
+      // then
+      assertThat(decoded).isInstanceOf(event.getClass()).usingRecursiveComparison().ignoringFields("eventType")
+          .isEqualTo(event);
+      assertThat(binary.length).isLessThan(json.encode(event).length / 3);
+    }
+  }
+
+  @Test
+  void shouldRoundTripEveryValueKindAndUnknownStrings() throws Exception {
+    for (Object value : Arrays.asList(null, "Zürich", -42, Long.MIN_VALUE, 3.25d, new BigDecimal("18.50"))) {
+      // given
+      AttributeUpdatedEvent event = new AttributeUpdatedEvent("cart-1", "Cart", 1_700_000_000_000L);
+      event.setName("unitPrice");
+      event.setValue(value);
+
+      // when
+      DomainEvent decoded = codec.decode("AttributeUpdated.v1", codec.encode(event));
+
+      // then
+      assertThat(decoded).usingRecursiveComparison().ignoringFields("eventType").isEqualTo(event);
+    }
+  }
+
+  @Test
+  void shouldRoundTripAUnitOfWorkInOneEvent() throws Exception {
+    // given
+    Account account = new Account();
+    account.reset();
+    account.update(a -> {
+      a.setUsername("j2ee");
+      a.setEmail("yourname@yourdomain.com");
+      a.setListOption(true);
+    });
+    DomainEvent event = account.getEvents().get(0);
+
+    // when
+    byte[] binary = codec.encode(event);
+    DomainEvent decoded = codec.decode("AttributesUpdated.v1", binary);
+
+    // then
+    assertThat(binary[0]).isNotEqualTo((byte) '{');
+    assertThat(decoded).isInstanceOf(AttributesUpdatedEvent.class).usingRecursiveComparison()
+        .ignoringFields("eventType").isEqualTo(event);
+    assertThat(json.decode(json.encode(event))).usingRecursiveComparison().ignoringFields("eventType").isEqualTo(event);
+  }
+
+  @Test
+  void shouldFallBackToJsonAndReadJsonPayloads() throws Exception {
+    // given
+    AttributeUpdatedEvent event = new AttributeUpdatedEvent("a", "Test", 1L);
+    event.setName("tags");
+    event.setValue(Arrays.asList("a", "b"));
+    AttributeUpdatedEvent plain = new AttributeUpdatedEvent("a", "Test", 1L);
+    plain.setName("name");
+    plain.setValue("foo");
+
+    // when
+    byte[] encoded = codec.encode(event);
+
+    // then
+    assertThat(encoded[0]).isEqualTo((byte) '{');
+    assertThat(codec.isJson(encoded)).isTrue();
+    assertThat(codec.isJson(codec.encode(plain))).isFalse();
+    assertThat(((AttributeUpdatedEvent) codec.decode(encoded)).getValue()).isEqualTo(Arrays.asList("a", "b"));
+    assertThat(codec.decode(json.encode(plain))).usingRecursiveComparison().ignoringFields("eventType")
+        .isEqualTo(plain);
+  }
+
+}
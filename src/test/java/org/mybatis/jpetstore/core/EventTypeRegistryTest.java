@@ -0,0 +1,55 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+
+class EventTypeRegistryTest {
+
+  @Test
+  void shouldResolveNamesAndAliases() {
+    // when
+    EventTypeRegistry registry = EventTypeRegistry.defaults();
+
+    // then
+    assertThat(registry.nameOf(AttributeUpdatedEvent.class)).isEqualTo("AttributeUpdated.v1");
+    assertThat(registry.typeOf("AttributeUpdated.v1")).isEqualTo(AttributeUpdatedEvent.class);
+    assertThat(registry.typeOf(AttributeUpdatedEvent.class.getName())).isEqualTo(AttributeUpdatedEvent.class);
+    assertThat(registry.typeOf("AttributeUpdated.v2")).isNull();
+    assertThat(registry.typeOf(AttributesUpdatedEvent.class.getName())).isNull();
+  }
+
+  @Test
+  void shouldRejectConflictingRegistrations() {
+    // given
+    EventTypeRegistry registry = new EventTypeRegistry().register("EntityCreated.v1", EntityCreatedEvent.class);
+
+    // then
+    assertThatThrownBy(() -> registry.register("EntityCreated.v2", EntityCreatedEvent.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> registry.register("EntityCreated.v1", AttributeUpdatedEvent.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> registry.nameOf(AttributeUpdatedEvent.class))
+        .isInstanceOf(UnknownEventTypeException.class);
+  }
+
+}
@@ -0,0 +1,151 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+
+class InMemoryEventStoreTest {
+
+  private final InMemoryEventStore eventStore = new InMemoryEventStore();
+
+  @Test
+  void shouldReadStreamsAndAllInAppendOrder() {
+    // given
+    DomainEvent a1 = new EntityCreatedEvent("a", "Test", 1L);
+    DomainEvent b1 = new EntityCreatedEvent("b", "Test", 2L);
+    DomainEvent a2 = updated("a", "name", "foo");
+
+    // when
+    eventStore.appendToStream("a", a1);
+    eventStore.appendToStream("b", b1);
+    eventStore.appendToStream("a", a2);
+
+    // then
+    assertThat(eventStore.getStream("a")).containsExactly(a1, a2);
+    assertThat(eventStore.getStream("b")).containsExactly(b1);
+    assertThat(eventStore.getStream("c")).isEmpty();
+    assertThat(eventStore.getAllStream()).containsExactly(a1, b1, a2);
+    assertThat(eventStore.getStreamAfter("a", 0)).containsExactly(a2);
+    assertThat(eventStore.getStreamAfter("a", EventStore.NO_STREAM)).containsExactly(a1, a2);
+  }
+
+  @Test
+  void shouldRejectAppendsAtAStaleVersion() {
+    // given
+    List<DomainEvent> first = Arrays.asList(new EntityCreatedEvent("a", "Test", 1L), updated("a", "name", "foo"));
+    assertThat(eventStore.appendToStream("a", EventStore.NO_STREAM, first)).isEqualTo(1L);
+
+    // when
+    long version = eventStore.appendToStream("a", 1L, Collections.singletonList(updated("a", "name", "bar")));
+
+    // then
+    assertThat(version).isEqualTo(2L);
+    assertThatThrownBy(() -> eventStore.appendToStream("a", 1L, Collections.singletonList(updated("a", "name", "baz"))))
+        .isInstanceOf(ConcurrencyException.class);
+    assertThatThrownBy(() -> eventStore.appendToStream("a", EventStore.NO_STREAM, first))
+        .isInstanceOf(ConcurrencyException.class);
+    assertThat(eventStore.getStream("a")).hasSize(3);
+  }
+
+  @Test
+  void shouldReadInPages() {
+    // given
+    List<DomainEvent> a = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      a.add(updated("a", "n", i));
+      eventStore.appendToStream("a", a.get(i));
+      eventStore.appendToStream("b", updated("b", "n", i));
+    }
+
+    // when
+    List<DomainEvent> all = eventStore.readAll(3).collect(Collectors.toList());
+    List<DomainEvent> tail = eventStore.readStream("a", 1L, 2).collect(Collectors.toList());
+
+    // then
+    assertThat(all).containsExactlyElementsOf(eventStore.getAllStream());
+    assertThat(tail).containsExactlyElementsOf(a.subList(2, 7));
+    assertThat(eventStore.readStream("c", EventStore.NO_STREAM, 2)).isEmpty();
+  }
+
+  @Test
+  void shouldKeepTheLatestSnapshot() {
+    // when
+    eventStore.saveSnapshot(new Snapshot("a", 1L, Collections.singletonMap("name", "foo")));
+    eventStore.saveSnapshot(new Snapshot("a", 5L, Collections.singletonMap("name", "bar")));
+
+    // then
+    assertThat(eventStore.getSnapshot("a").getVersion()).isEqualTo(5L);
+    assertThat(eventStore.getSnapshot("b")).isNull();
+  }
+
+  @Test
+  void shouldKeepStreamsAndLogConsistentUnderConcurrentAppends() throws Exception {
+    // given
+    int threads = 8;
+    int appends = 1000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+
+    // when
+    for (int t = 0; t < threads; t++) {
+      String streamId = "s" + (t % 2);
+      executor.execute(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < appends; i++) {
+            eventStore.appendToStream(streamId, updated(streamId, "n", i));
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    // then
+    List<DomainEvent> all = eventStore.getAllStream();
+    assertThat(all).hasSize(threads * appends);
+    List<DomainEvent> s0 = new ArrayList<>(all);
+    s0.removeIf(e -> !e.getStreamId().equals("s0"));
+    assertThat(eventStore.getStream("s0")).containsExactlyElementsOf(s0);
+  }
+
+  private static DomainEvent updated(String streamId, String name, Object value) {
+    AttributeUpdatedEvent event = new AttributeUpdatedEvent(streamId, "Test", 0L);
+    event.setName(name);
+    event.setValue(value);
+    return event;
+  }
+
+}
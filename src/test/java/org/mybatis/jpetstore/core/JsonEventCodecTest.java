@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+import org.mybatis.jpetstore.core.event.ItemAddedEvent;
+
+class JsonEventCodecTest {
+
+  private final JsonEventCodec codec = new JsonEventCodec();
+
+  @Test
+  void shouldRoundTripEventsIntoTheirOwnClass() throws Exception {
+    // given
+    DomainEvent created = new EntityCreatedEvent("a", "Test", 1L);
+    AttributeUpdatedEvent updated = new AttributeUpdatedEvent("a", "Test", 2L);
+    updated.setName("name");
+    updated.setValue("foo");
+
+    // when
+    DomainEvent decodedCreated = codec.decode(codec.encode(created));
+    DomainEvent decodedUpdated = codec.decode(AttributeUpdatedEvent.class.getName(), codec.encode(updated));
+
+    // then
+    assertThat(decodedCreated).isInstanceOf(EntityCreatedEvent.class).usingRecursiveComparison().isEqualTo(created);
+    assertThat(decodedUpdated).isInstanceOf(AttributeUpdatedEvent.class).usingRecursiveComparison().isEqualTo(updated);
+  }
+
+  @Test
+  void shouldRoundTripCartEventsWithTheirItemIdAndPrice() throws Exception {
+    // given
+    ItemAddedEvent added = new ItemAddedEvent("a", "Cart", 1L);
+    added.setItemId("EST-1");
+    added.setUnitPrice(new BigDecimal("16.50"));
+    added.setInStock(true);
+
+    // when
+    byte[] payload = codec.encode(added);
+    DomainEvent decoded = codec.decode("ItemAdded.v1", payload);
+
+    // then
+    assertThat(codec.typeName(added)).isEqualTo("ItemAdded.v1");
+    assertThat(decoded).isInstanceOf(ItemAddedEvent.class).usingRecursiveComparison().isEqualTo(added);
+    assertThat(new String(payload, StandardCharsets.UTF_8)).doesNotContain("\"item\"");
+  }
+
+  @Test
+  void shouldReadCartEventsRecordedWithTheWholeItem() throws Exception {
+    // given
+    String json = "{\"eventType\":\"ItemAdded.v1\",\"streamId\":\"a\",\"entityType\":\"Cart\",\"timestamp\":1,"
+        + "\"item\":{\"itemId\":\"EST-1\",\"listPrice\":16.50,\"product\":{\"name\":\"Angelfish\"}},"
+        + "\"inStock\":true}";
+
+    // when
+    ItemAddedEvent added = (ItemAddedEvent) codec.decode(json.getBytes(StandardCharsets.UTF_8));
+
+    // then
+    assertThat(added.getItemId()).isEqualTo("EST-1");
+    assertThat(added.getUnitPrice()).isEqualByComparingTo("16.50");
+    assertThat(added.isInStock()).isTrue();
+  }
+
+  @Test
+  void shouldReadPayloadsWrittenBeforeTheCodec() throws Exception {
+    // given
+    String json = "{\"eventType\":\"org.mybatis.jpetstore.core.event.AttributeUpdatedEvent\",\"streamId\":\"a\","
+        + "\"entityType\":\"Test\",\"timestamp\":5,\"name\":\"listOption\",\"value\":true}";
+
+    // when
+    DomainEvent event = codec.decode(json.getBytes(StandardCharsets.UTF_8));
+
+    // then
+    assertThat(event.getTimestamp()).isEqualTo(5L);
+    assertThat(((AttributeUpdatedEvent) event).getValue()).isEqualTo(true);
+  }
+
+  @Test
+  void shouldWriteTheRegisteredTypeName() throws Exception {
+    // given
+    DomainEvent created = new EntityCreatedEvent("a", "Test", 1L);
+
+    // when
+    String json = new String(codec.encode(created), StandardCharsets.UTF_8);
+
+    // then
+    assertThat(codec.typeName(created)).isEqualTo("EntityCreated.v1");
+    assertThat(json).contains("\"eventType\":\"EntityCreated.v1\"").doesNotContain(EntityCreatedEvent.class.getName());
+  }
+
+  @Test
+  void shouldFailOrSkipUnknownTypes() throws Exception {
+    // given
+    byte[] data = "{\"eventType\":\"CartCleared.v1\",\"streamId\":\"a\",\"entityType\":\"Test\",\"timestamp\":5}"
+        .getBytes(StandardCharsets.UTF_8);
+
+    // when
+    Throwable thrown = catchThrowable(() -> codec.decode(data));
+    codec.setIgnoreUnknownTypes(true);
+
+    // then
+    assertThat(thrown).isInstanceOf(UnknownEventTypeException.class);
+    assertThat(((UnknownEventTypeException) thrown).getEventType()).isEqualTo("CartCleared.v1");
+    assertThat(codec.decode(data)).isNull();
+    assertThat(codec.decode("CartCleared.v1", data)).isNull();
+  }
+
+  @Test
+  void shouldRoundTripSnapshots() throws Exception {
+    // given
+    Snapshot snapshot = new Snapshot("a", 3L, Collections.singletonMap("name", "foo"));
+
+    // when
+    Snapshot decoded = codec.decodeSnapshot(codec.encodeSnapshot(snapshot));
+
+    // then
+    assertThat(decoded).usingRecursiveComparison().isEqualTo(snapshot);
+  }
+
+}
@@ -0,0 +1,267 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.core.file;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mybatis.jpetstore.core.BinaryEventCodec;
+import org.mybatis.jpetstore.core.ConcurrencyException;
+import org.mybatis.jpetstore.core.EventCodec;
+import org.mybatis.jpetstore.core.EventPage;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.JsonEventCodec;
+import org.mybatis.jpetstore.core.Snapshot;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+
+class FileEventStoreTest {
+
+  private static final long TIMESTAMP = 1_700_000_000_000L;
+
+  @TempDir
+  Path directory;
+
+  private final List<FileEventStore> opened = new ArrayList<>();
+
+  @AfterEach
+  void tearDown() throws IOException {
+    for (FileEventStore eventStore : opened) {
+      eventStore.close();
+    }
+  }
+
+  @Test
+  void shouldReadStreamsAndAllInAppendOrder() throws IOException {
+    // given
+    FileEventStore eventStore = open(FsyncPolicy.PER_APPEND, FileEventStore.DEFAULT_SEGMENT_SIZE);
+    DomainEvent a1 = new EntityCreatedEvent("a", "Test", TIMESTAMP);
+    DomainEvent b1 = new EntityCreatedEvent("b", "Test", TIMESTAMP);
+    DomainEvent a2 = updated("a", "name", "foo");
+
+    // when
+    eventStore.appendToStream("a", a1);
+    eventStore.appendToStream("b", b1);
+    eventStore.appendToStream("a", a2);
+
+    // then
+    assertThat(eventStore.getStream("a")).usingRecursiveFieldByFieldElementComparator().containsExactly(a1, a2);
+    assertThat(eventStore.getStream("c")).isEmpty();
+    assertThat(eventStore.getAllStream()).usingRecursiveFieldByFieldElementComparator().containsExactly(a1, b1, a2);
+    assertThat(eventStore.getStreamAfter("a", 0)).usingRecursiveFieldByFieldElementComparator().containsExactly(a2);
+    assertThat(eventStore.readStream("a", EventStore.NO_STREAM, 1).collect(Collectors.toList()))
+        .usingRecursiveFieldByFieldElementComparator().containsExactly(a1, a2);
+  }
+
+  @Test
+  void shouldRejectAppendsAtAStaleVersion() throws IOException {
+    // given
+    FileEventStore eventStore = open(FsyncPolicy.PER_BATCH, FileEventStore.DEFAULT_SEGMENT_SIZE);
+    List<DomainEvent> first = Arrays.asList(new EntityCreatedEvent("a", "Test", TIMESTAMP),
+        updated("a", "name", "foo"));
+    assertThat(eventStore.appendToStream("a", EventStore.NO_STREAM, first)).isEqualTo(1L);
+
+    // when
+    long version = eventStore.appendToStream("a", 1L, Collections.singletonList(updated("a", "name", "bar")));
+
+    // then
+    assertThat(version).isEqualTo(2L);
+    assertThatThrownBy(() -> eventStore.appendToStream("a", 1L, Collections.singletonList(updated("a", "name", "baz"))))
+        .isInstanceOf(ConcurrencyException.class);
+    assertThat(eventStore.getStream("a")).hasSize(3);
+  }
+
+  @Test
+  void shouldRecoverStreamsAndSnapshotsAfterReopening() throws IOException {
+    // given
+    FileEventStore eventStore = open(FsyncPolicy.INTERVAL, 512);
+    for (int i = 0; i < 20; i++) {
+      eventStore.appendToStream("s" + (i % 3),
+          i == 0 ? EventStore.NO_STREAM : eventStore.getStream("s" + (i % 3)).size() - 1,
+          Collections.singletonList(updated("s" + (i % 3), "n", i)));
+    }
+    eventStore.saveSnapshot(new Snapshot("s0", 6L, Collections.singletonMap("n", 18)));
+    List<DomainEvent> all = eventStore.getAllStream();
+    eventStore.close();
+    opened.remove(eventStore);
+
+    // when
+    FileEventStore reopened = open(FsyncPolicy.PER_APPEND, 512);
+
+    // then
+    assertThat(segments()).hasSizeGreaterThan(1);
+    assertThat(reopened.getAllStream()).usingRecursiveFieldByFieldElementComparator().containsExactlyElementsOf(all);
+    assertThat(reopened.getStream("s1")).hasSize(7);
+    assertThat(reopened.readAll(4).collect(Collectors.toList())).usingRecursiveFieldByFieldElementComparator()
+        .containsExactlyElementsOf(all);
+    assertThat(reopened.readStream("s1", 2L, 3).collect(Collectors.toList())).hasSize(4);
+    assertThat(reopened.getSnapshot("s0").getVersion()).isEqualTo(6L);
+    assertThat(reopened.getSnapshot("s0").getState()).containsEntry("n", 18);
+    assertThat(reopened.appendToStream("s1", 6L, Collections.singletonList(updated("s1", "n", 20)))).isEqualTo(7L);
+  }
+
+  @Test
+  void shouldResumeReadingAllFromAPositionAcrossSegments() throws IOException {
+    // given
+    FileEventStore eventStore = open(FsyncPolicy.PER_APPEND, 512);
+    for (int i = 0; i < 20; i++) {
+      eventStore.appendToStream("s" + i, updated("s" + i, "n", i));
+    }
+    eventStore.saveSnapshot(new Snapshot("s0", 0L, Collections.singletonMap("n", 0)));
+    eventStore.appendToStream("s20", updated("s20", "n", 20));
+
+    // when
+    List<DomainEvent> events = new ArrayList<>();
+    long position = EventStore.START_POSITION;
+    for (EventPage page = eventStore.readAllAfter(position, 3); page.getPosition() != position; page = eventStore
+        .readAllAfter(position, 3)) {
+      events.addAll(page.getEvents());
+      position = page.getPosition();
+    }
+
+    // then
+    assertThat(segments()).hasSizeGreaterThan(1);
+    assertThat(events).usingRecursiveFieldByFieldElementComparator()
+        .containsExactlyElementsOf(eventStore.getAllStream());
+    assertThat(events).hasSize(21);
+    assertThat(eventStore.readAllAfter(position, 3).getEvents()).isEmpty();
+  }
+
+  @Test
+  void shouldMeasureTheDistanceBetweenPositionsInBytesAcrossSegments() throws IOException {
+    // given
+    FileEventStore eventStore = open(FsyncPolicy.PER_APPEND, 512);
+    for (int i = 0; i < 20; i++) {
+      eventStore.appendToStream("s" + i, updated("s" + i, "n", i));
+    }
+
+    // when
+    long distance = eventStore.distance(EventStore.START_POSITION, eventStore.lastPosition());
+
+    // then
+    eventStore.close();
+    opened.remove(eventStore);
+    long bytes = 0;
+    for (Path segment : segments()) {
+      bytes += Files.size(segment);
+    }
+    assertThat(segments()).hasSizeGreaterThan(1);
+    assertThat(distance).isEqualTo(bytes);
+    assertThat(eventStore.distance(eventStore.lastPosition(), EventStore.START_POSITION)).isZero();
+  }
+
+  @Test
+  void shouldTruncateAnIncompleteAppendOnRecovery() throws IOException {
+    // given
+    FileEventStore eventStore = open(FsyncPolicy.PER_APPEND, FileEventStore.DEFAULT_SEGMENT_SIZE);
+    eventStore.appendToStream("a", EventStore.NO_STREAM,
+        Arrays.asList(new EntityCreatedEvent("a", "Test", TIMESTAMP), updated("a", "name", "foo")));
+    Path segment = segments().get(0);
+    long committed = eventStore.lastPosition();
+    eventStore.appendToStream("a", 1L, Arrays.asList(updated("a", "name", "bar"), updated("a", "name", "baz")));
+    eventStore.close();
+    opened.remove(eventStore);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      // simulate a crash halfway through the second record of the last append
+      channel.truncate(Files.size(segment) - 10);
+    }
+
+    // when
+    FileEventStore reopened = open(FsyncPolicy.PER_APPEND, FileEventStore.DEFAULT_SEGMENT_SIZE);
+
+    // then
+    assertThat(reopened.getStream("a")).hasSize(2);
+    assertThat(reopened.distance(EventStore.START_POSITION, reopened.lastPosition())).isEqualTo(committed);
+    assertThat(reopened.appendToStream("a", 1L, Collections.singletonList(updated("a", "name", "qux")))).isEqualTo(2L);
+    assertThat(((AttributeUpdatedEvent) reopened.getStream("a").get(2)).getValue()).isEqualTo("qux");
+  }
+
+  @Test
+  void shouldRecoverAPreallocatedSegmentLeftOpenByACrash() throws IOException {
+    // given
+    FileEventStore crashed = open(FsyncPolicy.PER_APPEND, 4096);
+    crashed.appendToStream("a", EventStore.NO_STREAM,
+        Arrays.asList(new EntityCreatedEvent("a", "Test", TIMESTAMP), updated("a", "name", "foo")));
+    Path segment = segments().get(0);
+
+    // when
+    FileEventStore reopened = open(FsyncPolicy.PER_APPEND, 4096);
+
+    // then
+    assertThat(Files.size(segment)).isEqualTo(4096L);
+    assertThat(reopened.getStream("a")).hasSize(2);
+    assertThat(reopened.appendToStream("a", 1L, Collections.singletonList(updated("a", "name", "bar")))).isEqualTo(2L);
+    assertThat(reopened.readAll(10).collect(Collectors.toList())).hasSize(3);
+  }
+
+  @Test
+  void shouldReadJsonHistoryAfterSwitchingToTheBinaryCodec() throws IOException {
+    // given
+    FileEventStore eventStore = open(FsyncPolicy.PER_APPEND, FileEventStore.DEFAULT_SEGMENT_SIZE);
+    DomainEvent a1 = new EntityCreatedEvent("a", "Test", TIMESTAMP);
+    eventStore.appendToStream("a", a1);
+    eventStore.close();
+    opened.remove(eventStore);
+
+    // when
+    FileEventStore reopened = open(FsyncPolicy.PER_APPEND, FileEventStore.DEFAULT_SEGMENT_SIZE, new BinaryEventCodec());
+    DomainEvent a2 = updated("a", "name", "foo");
+    reopened.appendToStream("a", a2);
+
+    // then
+    assertThat(reopened.getStream("a")).usingRecursiveFieldByFieldElementComparator().containsExactly(a1, a2);
+  }
+
+  private FileEventStore open(FsyncPolicy fsyncPolicy, int segmentSize) throws IOException {
+    return open(fsyncPolicy, segmentSize, new JsonEventCodec());
+  }
+
+  private FileEventStore open(FsyncPolicy fsyncPolicy, int segmentSize, EventCodec codec) throws IOException {
+    FileEventStore eventStore = new FileEventStore(directory, fsyncPolicy, 2, 10, segmentSize, codec);
+    opened.add(eventStore);
+    return eventStore;
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> list = Files.list(directory)) {
+      return list.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static DomainEvent updated(String streamId, String name, Object value) {
+    AttributeUpdatedEvent event = new AttributeUpdatedEvent(streamId, "Test", TIMESTAMP);
+    event.setName(name);
+    event.setValue(value);
+    return event;
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.domain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.event.AttributesUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+
+class AccountTest {
+
+  @Test
+  void restoreFromSnapshotMatchesFullReplay() throws Exception {
+    // given
+    Account original = new Account();
+    List<DomainEvent> history = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      original.setUsername("user" + (i % 3));
+      original.setEmail("user" + i + "@example.com");
+      original.setCity("City" + i);
+      original.setListOption(i % 2 == 0);
+      original.setBannerOption(i % 3 == 0);
+    }
+    original.setFavouriteCategoryId("DOGS");
+    history.addAll(original.getEvents());
+    int snapshotAt = history.size() / 2;
+
+    Account snapshotted = new Account(original.getAccountId());
+    history.subList(0, snapshotAt).forEach(snapshotted::mutate);
+    // the snapshot goes through the same JSON round trip as in the event store
+    ObjectMapper mapper = new ObjectMapper();
+    @SuppressWarnings("unchecked")
+    Map<String, Object> state = mapper.readValue(mapper.writeValueAsBytes(snapshotted.snapshot()), Map.class);
+
+    // when
+    Account fullReplay = new Account(original.getAccountId());
+    history.forEach(fullReplay::mutate);
+    Account restored = new Account(original.getAccountId());
+    restored.restore(state);
+    history.subList(snapshotAt, history.size()).forEach(restored::mutate);
+
+    // then
+    assertThat(restored).usingRecursiveComparison().isEqualTo(fullReplay);
+    assertThat(restored.snapshot()).isEqualTo(original.snapshot());
+    assertThat(restored.getEvents()).isEmpty();
+  }
+
+  @Test
+  void shouldRecordAUnitOfWorkAsOneEventAndReplayBothShapes() {
+    // given
+    Account account = new Account();
+    account.setUsername("foo");
+    account.setEmail("foo@example.com");
+    List<DomainEvent> history = new ArrayList<>(account.getEvents());
+    account.reset();
+
+    // when
+    account.update(a -> {
+      a.setEmail("bar@example.com");
+      a.update(nested -> nested.setCity("Springfield"));
+      a.setBannerOption(true);
+    });
+
+    // then
+    assertThat(account.getEvents()).hasSize(1).first().isInstanceOf(AttributesUpdatedEvent.class);
+    assertThat(((AttributesUpdatedEvent) account.getEvents().get(0)).getAttributes())
+        .containsOnlyKeys("email", "city", "bannerOption").containsEntry("email", "bar@example.com");
+    history.addAll(account.getEvents());
+    Account replayed = new Account(account.getAccountId());
+    history.forEach(replayed::mutate);
+    assertThat(replayed.snapshot()).isEqualTo(account.snapshot());
+    assertThat(replayed.getUsername()).isEqualTo("foo");
+    assertThat(replayed.getCity()).isEqualTo("Springfield");
+  }
+
+}
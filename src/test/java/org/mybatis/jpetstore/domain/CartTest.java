@@ -18,9 +18,22 @@ package org.mybatis.jpetstore.domain;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+import org.mybatis.jpetstore.core.event.ItemAddedEvent;
+import org.mybatis.jpetstore.core.event.ItemRemovedEvent;
+import org.mybatis.jpetstore.core.event.QuantityChangedEvent;
 
 class CartTest {
 
@@ -145,6 +158,21 @@ class CartTest {
     assertThat(cart.getCartItemList().get(0).getTotal()).isEqualTo(new BigDecimal("20.50"));
   }
 
+  @Test
+  void changeQuantityWhenItemNotFound() {
+    // given
+    Cart cart = new Cart();
+    int changes = cart.getEvents().size();
+
+    // when
+    cart.incrementQuantityByItemId("I01");
+    cart.setQuantityByItemId("I01", 10);
+
+    // then
+    assertThat(cart.getCartItemList()).isEmpty();
+    assertThat(cart.getEvents()).hasSize(changes);
+  }
+
   @Test
   void getSubTotalWhenItemIsEmpty() {
     // given
@@ -184,4 +212,164 @@ class CartTest {
     assertThat(subTotal).isEqualTo(new BigDecimal("28.61"));
   }
 
+  @Test
+  void replayRecordedEventsIntoTheSameCart() {
+    // given
+    Cart cart = new Cart();
+    Item dog = new Item();
+    dog.setItemId("I01");
+    dog.setListPrice(new BigDecimal("2.05"));
+    Item cat = new Item();
+    cat.setItemId("I02");
+    cat.setListPrice(new BigDecimal("3.06"));
+    cart.addItem(dog, true);
+    cart.addItem(cat, false);
+    cart.addItem(dog, true);
+    cart.setQuantityByItemId("I02", 4);
+    cart.removeItemById("I01");
+
+    // when
+    Cart replayed = new Cart(cart.getCartId());
+    cart.getEvents().forEach(replayed::mutate);
+
+    // then
+    assertThat(cart.getEvents()).extracting(DomainEvent::getClass).containsExactly(EntityCreatedEvent.class,
+        ItemAddedEvent.class, ItemAddedEvent.class, QuantityChangedEvent.class, QuantityChangedEvent.class,
+        ItemRemovedEvent.class);
+    assertThat(replayed.getCartItemList()).extracting(cartItem -> cartItem.getItem().getItemId())
+        .containsExactly("I02");
+    assertThat(replayed.getCartItemList().get(0).getQuantity()).isEqualTo(4);
+    assertThat(replayed.getCartItemList().get(0).isInStock()).isFalse();
+    assertThat(replayed.getSubTotal()).isEqualTo(new BigDecimal("12.24"));
+  }
+
+  @Test
+  void replayItemsDescribedByTheCatalogAtTheirRecordedPrice() {
+    // given
+    Cart cart = new Cart();
+    Item item = new Item();
+    item.setItemId("I01");
+    item.setListPrice(new BigDecimal("2.05"));
+    cart.addItem(item, true);
+    Product product = new Product();
+    product.setName("Angelfish");
+    Item listed = new Item();
+    listed.setItemId("I01");
+    listed.setListPrice(new BigDecimal("9.99"));
+    listed.setProduct(product);
+
+    // when
+    Cart replayed = new Cart(cart.getCartId(), itemId -> "I01".equals(itemId) ? listed : null);
+    cart.getEvents().forEach(replayed::mutate);
+
+    // then
+    assertThat(replayed.getCartItemList().get(0).getItem().getProduct().getName()).isEqualTo("Angelfish");
+    assertThat(replayed.getCartItemList().get(0).getItem().getListPrice()).isEqualTo(new BigDecimal("2.05"));
+    assertThat(replayed.getSubTotal()).isEqualTo(new BigDecimal("2.05"));
+  }
+
+  @Test
+  void keepItemsConsistentUnderConcurrentChanges() throws Exception {
+    // given
+    Cart cart = new Cart();
+    Item shared = new Item();
+    shared.setItemId("SHARED");
+    shared.setListPrice(new BigDecimal("1.00"));
+    int threads = 8;
+    int itemsPerThread = 300;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+
+    // when
+    for (int t = 0; t < threads; t++) {
+      String prefix = "T" + t + "-";
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (int i = 0; i < itemsPerThread; i++) {
+          Item item = new Item();
+          item.setItemId(prefix + i);
+          item.setListPrice(new BigDecimal("0.10"));
+          cart.addItem(item, true);
+          cart.addItem(item, true);
+          cart.addItem(shared, true);
+          if (i % 2 == 0) {
+            cart.setQuantityByItemId(item.getItemId(), 5);
+          }
+          if (i % 3 == 0) {
+            cart.removeItemById(item.getItemId());
+          }
+          cart.getCartItemList().forEach(cartItem -> assertThat(cartItem.getQuantity()).isPositive());
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    // then
+    int kept = itemsPerThread - (itemsPerThread + 2) / 3;
+    assertThat(cart.getNumberOfItems()).isEqualTo(1 + threads * kept);
+    assertThat(cart.getCartItemList().get(0).getItem()).isSameAs(shared);
+    assertThat(cart.getCartItemList().get(0).getQuantity()).isEqualTo(threads * itemsPerThread);
+    for (int t = 0; t < threads; t++) {
+      String prefix = "T" + t + "-";
+      List<Integer> order = new ArrayList<>();
+      for (CartItem cartItem : cart.getCartItemList()) {
+        String itemId = cartItem.getItem().getItemId();
+        if (itemId.startsWith(prefix)) {
+          int i = Integer.parseInt(itemId.substring(prefix.length()));
+          order.add(i);
+          assertThat(cartItem.getQuantity()).isEqualTo(i % 2 == 0 ? 5 : 2);
+        }
+      }
+      assertThat(order).hasSize(kept).isSorted();
+    }
+    Cart replayed = new Cart(cart.getCartId());
+    cart.getEvents().forEach(replayed::mutate);
+    assertThat(replayed.getCartItemList()).usingRecursiveFieldByFieldElementComparator()
+        .containsExactlyElementsOf(cart.getCartItemList());
+    assertThat(replayed.getSubTotal()).isEqualTo(cart.getSubTotal());
+  }
+
+  @Test
+  void getSubTotalMatchesTheItemsAfterEveryChange() {
+    // given
+    Cart cart = new Cart();
+    Random random = new Random(42);
+    List<Item> items = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Item item = new Item();
+      item.setItemId("I" + i);
+      item.setListPrice(BigDecimal.valueOf(random.nextInt(100000), 2));
+      items.add(item);
+    }
+
+    for (int n = 0; n < 2000; n++) {
+      // when
+      Item item = items.get(random.nextInt(items.size()));
+      switch (random.nextInt(4)) {
+        case 0:
+          cart.removeItemById(item.getItemId());
+          break;
+        case 1:
+          if (cart.containsItemId(item.getItemId())) {
+            cart.setQuantityByItemId(item.getItemId(), random.nextInt(50));
+          }
+          break;
+        default:
+          cart.addItem(item, true);
+      }
+
+      // then
+      BigDecimal expected = cart.getCartItemList().stream()
+          .map(cartItem -> cartItem.getItem().getListPrice().multiply(new BigDecimal(cartItem.getQuantity())))
+          .reduce(BigDecimal.ZERO, BigDecimal::add);
+      assertThat(cart.getSubTotal()).isEqualByComparingTo(expected);
+    }
+  }
+
 }
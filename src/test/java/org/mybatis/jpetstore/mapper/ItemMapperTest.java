@@ -20,6 +20,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import java.math.BigDecimal;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -142,4 +143,24 @@ class ItemMapperTest {
 
   }
 
+  @Test
+  void updateInventoryQuantities() {
+    // given
+    Map<String, Integer> increments = new LinkedHashMap<>();
+    increments.put("EST-1", 10);
+    increments.put("EST-2", 3);
+
+    // when
+    mapper.updateInventoryQuantities(increments);
+
+    // then
+    assertThat(jdbcTemplate.queryForObject("SELECT QTY FROM inventory WHERE itemid = ?", Integer.class, "EST-1"))
+        .isEqualTo(9990);
+    assertThat(jdbcTemplate.queryForObject("SELECT QTY FROM inventory WHERE itemid = ?", Integer.class, "EST-2"))
+        .isEqualTo(9997);
+    assertThat(jdbcTemplate.queryForObject("SELECT QTY FROM inventory WHERE itemid = ?", Integer.class, "EST-3"))
+        .isEqualTo(10000);
+
+  }
+
 }
@@ -18,6 +18,7 @@ package org.mybatis.jpetstore.mapper;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -63,6 +64,33 @@ class LineItemMapperTest {
 
   }
 
+  @Test
+  void insertLineItems() {
+    // given
+    List<LineItem> lineItems = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      LineItem lineItem = new LineItem();
+      lineItem.setOrderId(1);
+      lineItem.setLineNumber(i);
+      lineItem.setItemId("EST-" + i);
+      lineItem.setQuantity(i);
+      lineItem.setUnitPrice(BigDecimal.valueOf(10 * i));
+      lineItems.add(lineItem);
+    }
+
+    // when
+    mapper.insertLineItems(lineItems);
+
+    // then
+    List<Map<String, Object>> records = jdbcTemplate
+        .queryForList("SELECT * FROM lineitem WHERE orderid = ? ORDER BY linenum", 1);
+    assertThat(records).extracting(r -> r.get("ITEMID")).containsExactly("EST-1", "EST-2", "EST-3");
+    assertThat(records).extracting(r -> r.get("QUANTITY")).containsExactly(1, 2, 3);
+    assertThat(records).extracting(r -> r.get("UNITPRICE")).containsExactly(new BigDecimal("10.00"),
+        new BigDecimal("20.00"), new BigDecimal("30.00"));
+
+  }
+
   @Test
   void getLineItemsByOrderId() {
     // given
@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mybatis.jpetstore.core.InMemoryEventStore;
+import org.mybatis.jpetstore.domain.Account;
+import org.mybatis.jpetstore.mapper.AccountMapper;
+import org.mybatis.jpetstore.mapper.MapperTestContext;
+import org.mybatis.jpetstore.repository.EventSourcedAccountRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes = MapperTestContext.class)
+class AccountReadModelTest {
+
+  @Autowired
+  private AccountMapper mapper;
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private InMemoryEventStore eventStore;
+  private EventSourcedAccountRepository repository;
+  private AccountReadModel readModel;
+  private CatchUpSubscription subscription;
+
+  @BeforeEach
+  void setUp() {
+    eventStore = new InMemoryEventStore();
+    repository = new EventSourcedAccountRepository(eventStore);
+    readModel = new AccountReadModel(dataSource, transactionManager);
+    subscription = new CatchUpSubscription(eventStore, new InMemoryCheckpointStore(), "accounts");
+    subscription.subscribe(readModel);
+  }
+
+  @Test
+  void shouldServeSignOnFromTheProjectedTables() {
+    // given
+    Account account = newAccount("alice", "secret");
+    repository.save(account);
+    assertThat(subscription.getLag()).isPositive();
+
+    // when
+    subscription.poll();
+
+    // then
+    Account signedOn = mapper.getAccountByUsernameAndPassword("alice", "secret");
+    assertThat(signedOn.getAccountId()).isEqualTo(account.getAccountId());
+    assertThat(signedOn.getEmail()).isEqualTo("alice@example.com");
+    assertThat(signedOn.getFavouriteCategoryId()).isEqualTo("DOGS");
+    assertThat(signedOn.isListOption()).isTrue();
+    assertThat(mapper.getAccountByUsernameAndPassword("alice", "wrong")).isNull();
+    assertThat(subscription.getLag()).isZero();
+    assertThat(readModel.getEventsProjected()).isEqualTo(account.getVersion() + 1);
+    assertThat(readModel.getAccountsWritten()).isEqualTo(1L);
+  }
+
+  @Test
+  void shouldReplaceTheRowsOfARenamedAccount() {
+    // given
+    Account account = newAccount("bob", "secret");
+    repository.save(account);
+    subscription.poll();
+
+    // when
+    repository.update(account.getAccountId(), a -> {
+      a.setUsername("robert");
+      a.setPassword("changed");
+    });
+    subscription.poll();
+
+    // then
+    assertThat(mapper.getAccountByUsernameAndPassword("bob", "secret")).isNull();
+    assertThat(mapper.getAccountByUsernameAndPassword("robert", "changed").getAccountId())
+        .isEqualTo(account.getAccountId());
+    assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ACCOUNTSTREAM WHERE ACCOUNTID = ?", Integer.class,
+        account.getAccountId())).isEqualTo(1);
+  }
+
+  @Test
+  void shouldApplyTheEventsOfEveryPageInOrderToTheCurrentRows() {
+    // given
+    CatchUpSubscription onePerPage = new CatchUpSubscription(eventStore, new InMemoryCheckpointStore(), "one", 1,
+        10000);
+    onePerPage.subscribe(readModel);
+    Account account = new Account();
+    account.setPhone("555-0100");
+    account.setUsername("carol");
+    account.setPassword("first");
+    account.setFavouriteCategoryId("CATS");
+    repository.save(account);
+    while (onePerPage.poll()) {
+      // one event per page, the phone set before the username included
+    }
+
+    // when
+    repository.update(account.getAccountId(), a -> {
+      a.setPassword("second");
+      a.setListOption(true);
+    });
+    repository.update(account.getAccountId(), a -> a.setPassword("third"));
+    onePerPage.poll();
+    onePerPage.poll();
+
+    // then
+    Account signedOn = mapper.getAccountByUsernameAndPassword("carol", "third");
+    assertThat(signedOn.getAccountId()).isEqualTo(account.getAccountId());
+    assertThat(signedOn.getPhone()).isEqualTo("555-0100");
+    assertThat(signedOn.isListOption()).isTrue();
+    assertThat(mapper.getAccountByUsernameAndPassword("carol", "second")).isNull();
+    assertThat(readModel.getAccountsWritten()).isEqualTo(5L);
+  }
+
+  private static Account newAccount(String username, String password) {
+    Account account = new Account();
+    account.setUsername(username);
+    account.setPassword(password);
+    account.setEmail(username + "@example.com");
+    account.setFirstName(username);
+    account.setLastName("Smith");
+    account.setAddress1("1 Main Street");
+    account.setCity("Springfield");
+    account.setState("IL");
+    account.setZip("62701");
+    account.setCountry("USA");
+    account.setPhone("555-0100");
+    account.setLanguagePreference("english");
+    account.setFavouriteCategoryId("DOGS");
+    account.setListOption(true);
+    return account;
+  }
+
+}
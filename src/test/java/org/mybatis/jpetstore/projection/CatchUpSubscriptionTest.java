@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.InMemoryEventStore;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+import org.mybatis.jpetstore.domain.Account;
+import org.mybatis.jpetstore.repository.EventSourcedAccountRepository;
+
+class CatchUpSubscriptionTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void shouldCatchUpAndThenDeliverLiveEventsToEveryHandler() throws Exception {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    for (int i = 0; i < 5; i++) {
+      store.appendToStream("stream-" + i, event("stream-" + i));
+    }
+    List<DomainEvent> first = Collections.synchronizedList(new ArrayList<>());
+    List<DomainEvent> second = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch delivered = new CountDownLatch(6);
+    CatchUpSubscription subscription = new CatchUpSubscription(store, new InMemoryCheckpointStore(), "test", 2, 10000);
+    subscription.subscribe(first::addAll);
+    subscription.subscribe(events -> {
+      second.addAll(events);
+      events.forEach(e -> delivered.countDown());
+    });
+
+    // when
+    try {
+      subscription.start();
+      while (!subscription.isLive()) {
+        Thread.sleep(10);
+      }
+      store.appendToStream("stream-5", event("stream-5"));
+      subscription.wakeUp();
+
+      // then
+      assertThat(delivered.await(5, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      subscription.close();
+    }
+    assertThat(first).extracting(DomainEvent::getStreamId).containsExactly("stream-0", "stream-1", "stream-2",
+        "stream-3", "stream-4", "stream-5");
+    assertThat(second).containsExactlyElementsOf(first);
+    assertThat(subscription.getPosition()).isEqualTo(6L);
+  }
+
+  @Test
+  void shouldWakeUpWhenTheRepositoryItListensToAppends() throws Exception {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedAccountRepository repository = new EventSourcedAccountRepository(store);
+    CountDownLatch delivered = new CountDownLatch(1);
+    CatchUpSubscription subscription = new CatchUpSubscription(store, new InMemoryCheckpointStore(), "test", 10, 60000);
+    subscription.subscribe(events -> delivered.countDown());
+    subscription.listenTo(repository);
+
+    // when
+    try {
+      subscription.start();
+      while (!subscription.isLive()) {
+        Thread.sleep(10);
+      }
+      Account account = new Account();
+      account.setUsername("foo");
+      repository.save(account);
+
+      // then
+      assertThat(delivered.await(5, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      subscription.close();
+    }
+  }
+
+  @Test
+  void shouldCatchUpWithTheRebuilderBeforeGoingLive() throws Exception {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    for (int i = 0; i < 20; i++) {
+      store.appendToStream("stream-" + i, event("stream-" + i));
+    }
+    InMemoryCheckpointStore checkpoints = new InMemoryCheckpointStore();
+    Set<String> delivered = ConcurrentHashMap.newKeySet();
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    CatchUpSubscription subscription = new CatchUpSubscription(store, checkpoints, "test", 2, 10000);
+    subscription.subscribe(events -> {
+      threads.add(Thread.currentThread().getName());
+      events.forEach(event -> delivered.add(event.getStreamId()));
+    });
+    subscription.setRebuilder(new ProjectionRebuilder(store, checkpoints, "test", 3, 2));
+
+    // when
+    try {
+      subscription.start();
+      while (!subscription.isLive()) {
+        Thread.sleep(10);
+      }
+    } finally {
+      subscription.close();
+    }
+
+    // then
+    assertThat(delivered).hasSize(20);
+    assertThat(threads).allMatch(thread -> thread.startsWith("rebuild-test-"));
+    assertThat(subscription.getPosition()).isEqualTo(20L);
+    assertThat(checkpoints.load("test")).isEqualTo(20L);
+  }
+
+  @Test
+  void shouldResumeFromTheSavedCheckpoint() throws Exception {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    FileCheckpointStore checkpoints = new FileCheckpointStore(tempDir.resolve("checkpoints.properties"));
+    store.appendToStream("a", event("a"));
+    store.appendToStream("b", event("b"));
+    CatchUpSubscription subscription = new CatchUpSubscription(store, checkpoints, "test", 10, 10000);
+    subscription.subscribe(events -> {
+    });
+    subscription.poll();
+    store.appendToStream("c", event("c"));
+
+    // when
+    List<DomainEvent> delivered = new ArrayList<>();
+    CatchUpSubscription restarted = new CatchUpSubscription(store,
+        new FileCheckpointStore(tempDir.resolve("checkpoints.properties")), "test", 10, 10000);
+    restarted.subscribe(delivered::addAll);
+    restarted.poll();
+
+    // then
+    assertThat(delivered).extracting(DomainEvent::getStreamId).containsExactly("c");
+    assertThat(restarted.poll()).isFalse();
+  }
+
+  @Test
+  void shouldDeliverTheSameBatchAgainWhenAHandlerFails() throws Exception {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    InMemoryCheckpointStore checkpoints = new InMemoryCheckpointStore();
+    store.appendToStream("a", event("a"));
+    List<DomainEvent> delivered = new ArrayList<>();
+    boolean[] failed = new boolean[1];
+    CatchUpSubscription subscription = new CatchUpSubscription(store, checkpoints, "test", 10, 10000);
+    subscription.subscribe(events -> {
+      if (!failed[0]) {
+        failed[0] = true;
+        throw new IllegalStateException("boom");
+      }
+      delivered.addAll(events);
+    });
+
+    // when
+    assertThatThrownBy(subscription::poll).isInstanceOf(IllegalStateException.class);
+    subscription.poll();
+
+    // then
+    assertThat(delivered).extracting(DomainEvent::getStreamId).containsExactly("a");
+    assertThat(checkpoints.load("test")).isEqualTo(1L);
+  }
+
+  @Test
+  void shouldRejectHandlersOnceStarted() {
+    // given
+    CatchUpSubscription subscription = new CatchUpSubscription(new InMemoryEventStore(), new InMemoryCheckpointStore(),
+        "test");
+
+    // when
+    subscription.start();
+
+    // then
+    try {
+      assertThatThrownBy(() -> subscription.subscribe(events -> {
+      })).isInstanceOf(IllegalStateException.class);
+      assertThat(subscription.getPosition()).isEqualTo(EventStore.START_POSITION);
+    } finally {
+      subscription.close();
+    }
+  }
+
+  private static DomainEvent event(String streamId) {
+    return new EntityCreatedEvent(streamId, "test", 1700000000000L);
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.InMemoryEventStore;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+
+class ProjectionRebuilderTest {
+
+  private static final int STREAMS = 50;
+  private static final int EVENTS_PER_STREAM = 200;
+
+  @Test
+  void shouldApplyEveryEventInStreamOrder() throws Exception {
+    // given
+    InMemoryEventStore eventStore = store();
+    InMemoryCheckpointStore checkpoints = new InMemoryCheckpointStore();
+    Map<String, List<Object>> applied = new ConcurrentHashMap<>();
+    ProjectionRebuilder rebuilder = new ProjectionRebuilder(eventStore, checkpoints, "test", 4, 64);
+
+    // when
+    long position = rebuilder.rebuild(events -> events.forEach(
+        event -> applied.computeIfAbsent(event.getStreamId(), k -> Collections.synchronizedList(new ArrayList<>()))
+            .add(((AttributeUpdatedEvent) event).getValue())));
+
+    // then
+    List<Object> expected = IntStream.range(0, EVENTS_PER_STREAM).boxed().collect(Collectors.toList());
+    assertThat(applied).hasSize(STREAMS);
+    assertThat(applied.values()).allSatisfy(values -> assertThat(values).isEqualTo(expected));
+    assertThat(rebuilder.getEventsApplied()).isEqualTo((long) STREAMS * EVENTS_PER_STREAM);
+    assertThat(position).isEqualTo(eventStore.lastPosition());
+    assertThat(checkpoints.load("test")).isEqualTo(position);
+  }
+
+  @Test
+  void shouldResumeFromTheLastCompletePageAfterAFailure() throws Exception {
+    // given
+    InMemoryEventStore eventStore = store();
+    InMemoryCheckpointStore checkpoints = new InMemoryCheckpointStore();
+    AtomicBoolean failed = new AtomicBoolean();
+    Map<String, Object> latest = new ConcurrentHashMap<>();
+    EventHandler handler = events -> {
+      for (DomainEvent event : events) {
+        if (((AttributeUpdatedEvent) event).getValue().equals(EVENTS_PER_STREAM / 2)
+            && failed.compareAndSet(false, true)) {
+          throw new IllegalStateException("boom");
+        }
+        latest.put(event.getStreamId(), ((AttributeUpdatedEvent) event).getValue());
+      }
+    };
+    assertThatThrownBy(() -> new ProjectionRebuilder(eventStore, checkpoints, "test", 3, 100).rebuild(handler))
+        .hasRootCauseInstanceOf(IllegalStateException.class);
+    long checkpoint = checkpoints.load("test");
+
+    // when
+    ProjectionRebuilder resumed = new ProjectionRebuilder(eventStore, checkpoints, "test", 3, 100);
+    resumed.rebuild(handler);
+
+    // then
+    assertThat(checkpoint).isLessThan(eventStore.lastPosition());
+    assertThat(resumed.getEventsApplied()).isEqualTo(eventStore.lastPosition() - checkpoint);
+    assertThat(latest).hasSize(STREAMS)
+        .allSatisfy((streamId, value) -> assertThat(value).isEqualTo(EVENTS_PER_STREAM - 1));
+  }
+
+  private static InMemoryEventStore store() throws Exception {
+    InMemoryEventStore eventStore = new InMemoryEventStore();
+    for (int i = 0; i < EVENTS_PER_STREAM; i++) {
+      for (int s = 0; s < STREAMS; s++) {
+        AttributeUpdatedEvent event = new AttributeUpdatedEvent("stream-" + s, "Test", 1700000000000L);
+        event.setName("n");
+        event.setValue(i);
+        eventStore.appendToStream("stream-" + s, event);
+      }
+    }
+    return eventStore;
+  }
+
+}
@@ -0,0 +1,213 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.projection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mybatis.jpetstore.core.EventPage;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.InMemoryEventStore;
+import org.mybatis.jpetstore.core.Snapshot;
+import org.mybatis.jpetstore.core.file.FileEventStore;
+import org.mybatis.jpetstore.core.file.FsyncPolicy;
+import org.mybatis.jpetstore.domain.Account;
+
+class UsernameIndexTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final List<Long> positionsRead = new ArrayList<>();
+
+  private final InMemoryEventStore eventStore = new InMemoryEventStore() {
+    @Override
+    public EventPage readAllAfter(long position, int maxCount) {
+      positionsRead.add(position);
+      return super.readAllAfter(position, maxCount);
+    }
+  };
+
+  @Test
+  void shouldRebuildFromTheStoreWhenNothingIsPersisted() throws Exception {
+    // given
+    Account account = save("foo");
+    UsernameIndex index = new UsernameIndex(eventStore, tempDir.resolve("index.properties"));
+
+    // when
+    String accountId = index.find("foo");
+
+    // then
+    assertThat(accountId).isEqualTo(account.getAccountId());
+    assertThat(positionsRead).startsWith(EventStore.START_POSITION);
+    assertThat(tempDir.resolve("index.properties")).exists();
+  }
+
+  @Test
+  void shouldNotReadTheStoreForKnownUsernamesOnceWarmedUp() throws Exception {
+    // given
+    Account account = save("foo");
+    UsernameIndex index = new UsernameIndex(eventStore, null);
+
+    // when
+    index.warmUp();
+    positionsRead.clear();
+    String accountId = index.find("foo");
+
+    // then
+    assertThat(accountId).isEqualTo(account.getAccountId());
+    assertThat(positionsRead).isEmpty();
+  }
+
+  @Test
+  void shouldResumeFromTheCheckpointAfterARestart() throws Exception {
+    // given
+    Path file = tempDir.resolve("index.properties");
+    Account account = save("foo");
+    UsernameIndex index = new UsernameIndex(eventStore, file);
+    index.warmUp();
+    long checkpoint = index.getPosition();
+    Account other = save("bar");
+    positionsRead.clear();
+
+    // when
+    UsernameIndex restarted = new UsernameIndex(eventStore, file);
+    restarted.warmUp();
+
+    // then
+    assertThat(positionsRead).startsWith(checkpoint);
+    assertThat(restarted.find("foo")).isEqualTo(account.getAccountId());
+    assertThat(restarted.find("bar")).isEqualTo(other.getAccountId());
+  }
+
+  @Test
+  void shouldFindAccountsWrittenByAnotherNode() throws Exception {
+    // given
+    UsernameIndex index = new UsernameIndex(eventStore, null);
+    index.warmUp();
+
+    // when
+    Account account = save("foo");
+
+    // then
+    assertThat(index.find("foo")).isEqualTo(account.getAccountId());
+  }
+
+  @Test
+  void shouldReadPastPagesHoldingOnlySnapshots() throws Exception {
+    // given
+    try (FileEventStore store = new FileEventStore(tempDir.resolve("store"), FsyncPolicy.PER_APPEND, 0, 0, 512)) {
+      Account foo = new Account();
+      foo.setUsername("foo");
+      store.appendToStream(foo.getStreamId(), foo.getEvents());
+      for (int i = 0; i < 20; i++) {
+        store.saveSnapshot(new Snapshot(foo.getStreamId(), 1L, Collections.singletonMap("username", "foo")));
+      }
+      Account bar = new Account();
+      bar.setUsername("bar");
+      store.appendToStream(bar.getStreamId(), bar.getEvents());
+      UsernameIndex index = new UsernameIndex(store, null);
+
+      // when
+      index.warmUp();
+
+      // then
+      assertThat(index.find("foo")).isEqualTo(foo.getAccountId());
+      assertThat(index.find("bar")).isEqualTo(bar.getAccountId());
+      assertThat(index.getPosition()).isEqualTo(store.lastPosition());
+    }
+  }
+
+  @Test
+  void shouldDiscardACheckpointAheadOfTheStore() throws Exception {
+    // given
+    Path file = tempDir.resolve("index.properties");
+    save("foo");
+    save("bar");
+    new UsernameIndex(eventStore, file).warmUp();
+
+    // when
+    InMemoryEventStore wiped = new InMemoryEventStore();
+    Account account = new Account();
+    account.setUsername("baz");
+    wiped.appendToStream(account.getStreamId(), account.getEvents());
+    UsernameIndex index = new UsernameIndex(wiped, file);
+
+    // then
+    assertThat(index.find("foo")).isNull();
+    assertThat(index.find("baz")).isEqualTo(account.getAccountId());
+  }
+
+  @Test
+  void shouldCheckpointEveryIntervalAndOnClose() throws Exception {
+    // given
+    Path file = tempDir.resolve("index.properties");
+    UsernameIndex index = new UsernameIndex(eventStore, file);
+    index.setCheckpointInterval(2);
+    index.warmUp();
+
+    // when
+    Account first = new Account();
+    first.setUsername("foo");
+    index.applyAll(first.getEvents());
+    boolean writtenAfterOne = file.toFile().exists();
+    Account second = new Account();
+    second.setUsername("bar");
+    index.applyAll(second.getEvents());
+    boolean writtenAfterTwo = file.toFile().exists();
+    Account third = new Account();
+    third.setUsername("baz");
+    index.applyAll(third.getEvents());
+    index.close();
+
+    // then
+    assertThat(writtenAfterOne).isFalse();
+    assertThat(writtenAfterTwo).isTrue();
+    assertThat(new UsernameIndex(new InMemoryEventStore(), file).find("baz")).isEqualTo(third.getAccountId());
+  }
+
+  @Test
+  void shouldForgetTheOldUsernameWhenItChanges() {
+    // given
+    UsernameIndex index = new UsernameIndex(eventStore, tempDir.resolve("index.properties"));
+    Account account = new Account();
+    account.setUsername("foo");
+    index.applyAll(account.getEvents());
+    account.reset();
+
+    // when
+    account.setUsername("bar");
+    index.applyAll(account.getEvents());
+
+    // then
+    assertThat(index.find("foo")).isNull();
+    assertThat(index.find("bar")).isEqualTo(account.getAccountId());
+  }
+
+  private Account save(String username) throws Exception {
+    Account account = new Account();
+    account.setUsername(username);
+    eventStore.appendToStream(account.getStreamId(), account.getEvents());
+    return account;
+  }
+
+}
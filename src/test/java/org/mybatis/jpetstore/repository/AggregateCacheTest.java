@@ -0,0 +1,133 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.Snapshot;
+
+class AggregateCacheTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  void shouldEvictTheLeastRecentlyUsedEntry() {
+    // given
+    AggregateCache cache = new AggregateCache(2, 60000, now::get);
+    cache.put(snapshot("a", 0));
+    cache.put(snapshot("b", 0));
+    cache.get("a");
+
+    // when
+    cache.put(snapshot("c", 0));
+
+    // then
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("a")).isNotNull();
+    assertThat(cache.get("c")).isNotNull();
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getEvictions()).isEqualTo(1L);
+    assertThat(cache.getHits()).isEqualTo(3L);
+    assertThat(cache.getMisses()).isEqualTo(1L);
+  }
+
+  @Test
+  void shouldExpireEntriesAfterTheTimeToLive() {
+    // given
+    AggregateCache cache = new AggregateCache(2, 1000, now::get);
+    cache.put(snapshot("a", 0));
+
+    // when
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+
+    // then
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.size()).isZero();
+    assertThat(cache.getEvictions()).isEqualTo(1L);
+  }
+
+  @Test
+  void shouldKeepTheLatestRevision() {
+    // given
+    AggregateCache cache = new AggregateCache(2, 60000, now::get);
+    cache.put(snapshot("a", 5));
+
+    // when
+    cache.put(snapshot("a", 3));
+
+    // then
+    assertThat(cache.get("a").getVersion()).isEqualTo(5L);
+  }
+
+  @Test
+  void shouldServeParallelReadersWhileEntriesAreStoredAndEvicted() throws Exception {
+    // given
+    AggregateCache cache = new AggregateCache(100, 60000, now::get);
+    for (int i = 0; i < 100; i++) {
+      cache.put(snapshot("hot-" + i, 0));
+    }
+    int readers = 8;
+    int readsPerReader = 20000;
+    ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+
+    // when
+    for (int r = 0; r < readers; r++) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (int i = 0; i < readsPerReader; i++) {
+          Snapshot snapshot = cache.get("hot-" + i % 10);
+          assertThat(snapshot == null || snapshot.getStreamId().equals("hot-" + i % 10)).isTrue();
+        }
+        return null;
+      }));
+    }
+    futures.add(executor.submit(() -> {
+      start.await();
+      for (int i = 0; i < 5000; i++) {
+        cache.put(snapshot("cold-" + i, 0));
+      }
+      return null;
+    }));
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    // then
+    assertThat(cache.getHits() + cache.getMisses()).isEqualTo((long) readers * readsPerReader);
+    assertThat(cache.size()).isLessThanOrEqualTo(100);
+    assertThat(cache.getEvictions()).isGreaterThanOrEqualTo(5000L);
+  }
+
+  private static Snapshot snapshot(String streamId, long version) {
+    return new Snapshot(streamId, version, Collections.emptyMap());
+  }
+
+}
@@ -0,0 +1,519 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mybatis.jpetstore.core.ConcurrencyException;
+import org.mybatis.jpetstore.core.EventPage;
+import org.mybatis.jpetstore.core.EventStore;
+import org.mybatis.jpetstore.core.EventTypeRegistry;
+import org.mybatis.jpetstore.core.InMemoryEventStore;
+import org.mybatis.jpetstore.core.JsonEventCodec;
+import org.mybatis.jpetstore.core.Snapshot;
+import org.mybatis.jpetstore.core.event.AttributeUpdatedEvent;
+import org.mybatis.jpetstore.core.event.DomainEvent;
+import org.mybatis.jpetstore.core.event.EntityCreatedEvent;
+import org.mybatis.jpetstore.core.file.FileEventStore;
+import org.mybatis.jpetstore.core.file.FsyncPolicy;
+import org.mybatis.jpetstore.domain.Account;
+import org.mybatis.jpetstore.projection.UsernameIndex;
+
+@ExtendWith(MockitoExtension.class)
+class EventSourcedAccountRepositoryTest {
+
+  @Mock
+  private EventStore eventStore;
+
+  private EventSourcedAccountRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    // the username index reads what was appended since it was loaded, which is nothing as far as the mock knows
+    lenient().when(eventStore.readAllAfter(anyLong(), anyInt())).thenReturn(new EventPage(Collections.emptyList(), 0));
+    repository = new EventSourcedAccountRepository(eventStore, new UsernameIndex(eventStore, null), 0);
+  }
+
+  @Test
+  void shouldAppendAllPendingEventsInOneCall() throws Exception {
+    // given
+    Account account = new Account();
+    account.setUsername("foo");
+    account.setPassword("bar");
+    account.setEmail("foo@example.com");
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList())).thenReturn(3L);
+
+    // when
+    String streamId = repository.save(account);
+
+    // then
+    assertThat(streamId).isEqualTo(account.getStreamId());
+    verify(eventStore, times(1)).appendToStream(eq(account.getStreamId()), eq(EventStore.NO_STREAM),
+        argThat((List<DomainEvent> v) -> v.size() == 4 && v.get(0) instanceof EntityCreatedEvent));
+    verify(eventStore, never()).appendToStream(anyString(), any(DomainEvent.class));
+    assertThat(account.getEvents()).isEmpty();
+    assertThat(account.getVersion()).isEqualTo(3L);
+  }
+
+  @Test
+  void shouldNotCallTheStoreWhenNothingChanged() throws Exception {
+    // given
+    Account account = new Account("A01");
+
+    // when
+    String streamId = repository.save(account);
+
+    // then
+    assertThat(streamId).isNull();
+    verify(eventStore, never()).appendToStream(anyString(), anyLong(), anyList());
+  }
+
+  @Test
+  void shouldAppendWithTheLoadedVersion() throws Exception {
+    // given
+    String streamId = Account.class.getName() + ".A01";
+    when(eventStore.getStream(streamId)).thenReturn(history("A01"));
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList())).thenReturn(2L);
+
+    // when
+    Account account = repository.update("A01", a -> a.setEmail("foo@example.com"));
+
+    // then
+    verify(eventStore).appendToStream(eq(streamId), eq(1L), argThat((List<DomainEvent> v) -> v.size() == 1));
+    assertThat(account.getVersion()).isEqualTo(2L);
+    assertThat(account.getEmail()).isEqualTo("foo@example.com");
+  }
+
+  @Test
+  void shouldReloadAndRetryOnConflict() throws Exception {
+    // given
+    String streamId = Account.class.getName() + ".A01";
+    when(eventStore.getStream(streamId)).thenReturn(history("A01"));
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList()))
+        .thenThrow(new ConcurrencyException(streamId, 1L, null)).thenReturn(2L);
+
+    // when
+    repository.update("A01", a -> a.setEmail("foo@example.com"));
+
+    // then
+    verify(eventStore, times(2)).getStream(streamId);
+    verify(eventStore, times(2)).appendToStream(eq(streamId), eq(1L), anyList());
+  }
+
+  @Test
+  void shouldGiveUpAfterMaxRetries() throws Exception {
+    // given
+    String streamId = Account.class.getName() + ".A01";
+    repository.setMaxRetries(1);
+    when(eventStore.getStream(streamId)).thenReturn(history("A01"));
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList()))
+        .thenThrow(new ConcurrencyException(streamId, 1L, null));
+
+    // when
+    assertThatThrownBy(() -> repository.update("A01", a -> a.setEmail("foo@example.com")))
+        // then
+        .isInstanceOf(ConcurrencyException.class);
+    verify(eventStore, times(2)).appendToStream(eq(streamId), eq(1L), anyList());
+  }
+
+  @Test
+  void shouldReplayOnlyEventsAfterTheSnapshot() {
+    // given
+    String streamId = Account.class.getName() + ".A01";
+    repository = new EventSourcedAccountRepository(eventStore, new UsernameIndex(eventStore, null), 2);
+    Account snapshotted = new Account("A01");
+    snapshotted.setUsername("foo");
+    snapshotted.setEmail("foo@example.com");
+    Account tail = new Account("A01");
+    tail.setEmail("bar@example.com");
+    when(eventStore.getSnapshot(streamId)).thenReturn(new Snapshot(streamId, 2L, snapshotted.snapshot()));
+    when(eventStore.getStreamAfter(streamId, 2L)).thenReturn(new ArrayList<>(tail.getEvents()));
+
+    // when
+    Account account = repository.findBy("A01");
+
+    // then
+    verify(eventStore, never()).getStream(streamId);
+    assertThat(account.getUsername()).isEqualTo("foo");
+    assertThat(account.getEmail()).isEqualTo("bar@example.com");
+    assertThat(account.getVersion()).isEqualTo(3L);
+    assertThat(account.getEvents()).isEmpty();
+  }
+
+  @Test
+  void shouldTakeSnapshotWhenCrossingTheFrequency() throws Exception {
+    // given
+    repository = new EventSourcedAccountRepository(eventStore, new UsernameIndex(eventStore, null), 2);
+    Account account = new Account();
+    account.setUsername("foo");
+    account.setPassword("bar");
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList())).thenReturn(2L);
+
+    // when
+    repository.save(account);
+
+    // then
+    verify(eventStore).saveSnapshot(argThat(v -> v.getStreamId().equals(account.getStreamId()) && v.getVersion() == 2L
+        && "foo".equals(v.getState().get("username")) && "bar".equals(v.getState().get("password"))));
+  }
+
+  @Test
+  void shouldNotTakeSnapshotBeforeReachingTheFrequency() throws Exception {
+    // given
+    repository = new EventSourcedAccountRepository(eventStore, new UsernameIndex(eventStore, null), 10);
+    Account account = new Account();
+    account.setUsername("foo");
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList())).thenReturn(1L);
+
+    // when
+    repository.save(account);
+
+    // then
+    verify(eventStore, never()).saveSnapshot(any());
+  }
+
+  @Test
+  void shouldFindSavedAccountByUsernameAndPassword() throws Exception {
+    // given
+    Account account = new Account();
+    account.setUsername("foo");
+    account.setPassword("bar");
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList())).thenReturn(2L);
+    repository.save(account);
+    Account stored = new Account(account.getAccountId());
+    stored.setUsername("foo");
+    stored.setPassword("bar");
+    when(eventStore.getStream(account.getStreamId())).thenReturn(new ArrayList<>(stored.getEvents()));
+
+    // when
+    Account found = repository.findByUsernameAndPassword("foo", "bar");
+    Account wrongPassword = repository.findByUsernameAndPassword("foo", "wrong");
+    Account unknown = repository.findByUsernameAndPassword("unknown", "bar");
+
+    // then
+    assertThat(found.getAccountId()).isEqualTo(account.getAccountId());
+    assertThat(wrongPassword).isNull();
+    assertThat(unknown).isNull();
+  }
+
+  @Test
+  void shouldFailTheUpdateWhenTheStoreFails() throws Exception {
+    // given
+    String streamId = Account.class.getName() + ".A01";
+    when(eventStore.getStream(streamId)).thenReturn(history("A01"));
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList()))
+        .thenThrow(new ExecutionException(new IllegalStateException("store down")));
+
+    // when, then
+    assertThatThrownBy(() -> repository.update("A01", a -> a.setEmail("foo@example.com")))
+        .isInstanceOf(RuntimeException.class).hasRootCauseMessage("store down");
+    verify(eventStore, never()).saveSnapshot(any());
+  }
+
+  @Test
+  void shouldDetectConcurrentEditsAgainstARealStore() {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedAccountRepository repository = new EventSourcedAccountRepository(store);
+    Account account = new Account();
+    account.setUsername("foo");
+    repository.save(account);
+    Account first = repository.findBy(account.getAccountId());
+    Account second = repository.findBy(account.getAccountId());
+    first.setEmail("first@example.com");
+    repository.save(first);
+
+    // when
+    second.setEmail("second@example.com");
+
+    // then
+    assertThatThrownBy(() -> repository.save(second)).isInstanceOf(ConcurrencyException.class);
+    Account updated = repository.update(account.getAccountId(), a -> a.setEmail("second@example.com"));
+    assertThat(updated.getVersion()).isEqualTo(3L);
+    assertThat(repository.findBy(account.getAccountId()).getEmail()).isEqualTo("second@example.com");
+  }
+
+  @Test
+  void shouldKeepTheStreamRevisionWhenUnknownEventsAreSkipped(@TempDir Path directory) throws Exception {
+    // given
+    // a newer version of the application records a type this one does not know
+    JsonEventCodec newer = new JsonEventCodec(
+        new EventTypeRegistry().register("EntityCreated.v1", EntityCreatedEvent.class)
+            .register("AttributeUpdated.v1", AttributeUpdatedEvent.class)
+            .register("PasswordHashed.v1", PasswordHashedEvent.class));
+    Account account = new Account();
+    account.setUsername("foo");
+    String streamId = account.getStreamId();
+    try (FileEventStore store = new FileEventStore(directory, FsyncPolicy.PER_APPEND, 0, 0,
+        FileEventStore.DEFAULT_SEGMENT_SIZE, newer)) {
+      new EventSourcedAccountRepository(store).save(account);
+      store.appendToStream(streamId, 1L, Collections.singletonList(new PasswordHashedEvent(streamId)));
+      AttributeUpdatedEvent email = new AttributeUpdatedEvent(streamId, Account.class.getName(), 0L);
+      email.setName("email");
+      email.setValue("foo@example.com");
+      store.appendToStream(streamId, 2L, Collections.singletonList(email));
+    }
+    JsonEventCodec older = new JsonEventCodec();
+    older.setIgnoreUnknownTypes(true);
+
+    // when
+    try (FileEventStore store = new FileEventStore(directory, FsyncPolicy.PER_APPEND, 0, 0,
+        FileEventStore.DEFAULT_SEGMENT_SIZE, older)) {
+      EventSourcedAccountRepository repository = new EventSourcedAccountRepository(store);
+      Account found = repository.findBy(account.getAccountId());
+      Account updated = repository.update(account.getAccountId(), a -> a.setPhone("555"));
+
+      // then
+      assertThat(found.getEmail()).isEqualTo("foo@example.com");
+      assertThat(found.getVersion()).isEqualTo(3L);
+      assertThat(updated.getVersion()).isEqualTo(4L);
+      assertThat(repository.findAll()).extracting(Account::getVersion).containsExactly(4L);
+      assertThat(repository.findBy(account.getAccountId(), 3L).getVersion()).isEqualTo(3L);
+    }
+  }
+
+  @Test
+  void shouldFoldAllAccountsAcrossPages() {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedAccountRepository repository = new EventSourcedAccountRepository(store);
+    repository.setPageSize(2);
+    List<String> accountIds = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Account account = new Account();
+      account.setUsername("user" + i);
+      account.setEmail("user" + i + "@example.com");
+      repository.save(account);
+      accountIds.add(account.getAccountId());
+    }
+
+    // when
+    List<Account> accounts = repository.findAll();
+
+    // then
+    assertThat(accounts).extracting(Account::getAccountId).containsExactlyElementsOf(accountIds);
+    assertThat(accounts).extracting(Account::getUsername).containsExactly("user0", "user1", "user2", "user3", "user4");
+    assertThat(accounts).extracting(Account::getVersion).containsOnly(2L);
+  }
+
+  @Test
+  void shouldFindAccountsAsynchronously() throws Exception {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedAccountRepository repository = new EventSourcedAccountRepository(store);
+    Account account = new Account();
+    account.setUsername("foo");
+    account.setPassword("bar");
+    repository.save(account);
+
+    // when
+    Account found = repository.findByAsync(account.getAccountId()).get(1, TimeUnit.SECONDS);
+    Account signedOn = repository.findByUsernameAndPasswordAsync("foo", "bar").get(1, TimeUnit.SECONDS);
+    Account wrongPassword = repository.findByUsernameAndPasswordAsync("foo", "wrong").get(1, TimeUnit.SECONDS);
+
+    // then
+    assertThat(found.getUsername()).isEqualTo("foo");
+    assertThat(found.getVersion()).isEqualTo(2L);
+    assertThat(signedOn.getAccountId()).isEqualTo(account.getAccountId());
+    assertThat(wrongPassword).isNull();
+  }
+
+  @Test
+  void shouldTimeOutAsynchronousReads() {
+    // given
+    String streamId = Account.class.getName() + ".A01";
+    when(eventStore.readStreamAsync(streamId, EventStore.NO_STREAM)).thenReturn(new CompletableFuture<>());
+    repository.setTimeoutMillis(50);
+
+    // when
+    CompletableFuture<Account> account = repository.findByAsync("A01");
+
+    // then
+    assertThatThrownBy(account::join).hasCauseInstanceOf(TimeoutException.class);
+  }
+
+  @Test
+  void shouldServeCachedAccountsWithOneIncrementalRead() throws Exception {
+    // given
+    repository.setCache(new AggregateCache(10, 60000));
+    Account account = new Account();
+    account.setUsername("foo");
+    when(eventStore.appendToStream(anyString(), anyLong(), anyList())).thenReturn(1L);
+    repository.save(account);
+    when(eventStore.getStreamAfter(account.getStreamId(), 1L)).thenReturn(new ArrayList<>());
+
+    // when
+    Account first = repository.findBy(account.getAccountId());
+    first.setUsername("changed");
+    Account second = repository.findBy(account.getAccountId());
+
+    // then
+    assertThat(second.getUsername()).isEqualTo("foo");
+    assertThat(second.getVersion()).isEqualTo(1L);
+    verify(eventStore, times(2)).getStreamAfter(account.getStreamId(), 1L);
+    verify(eventStore, never()).getStream(anyString());
+    assertThat(repository.getCache().getHits()).isEqualTo(2L);
+    assertThat(repository.getCache().getMisses()).isZero();
+  }
+
+  @Test
+  void shouldCatchUpWithEventsWrittenPastTheCache() {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedAccountRepository reader = new EventSourcedAccountRepository(store);
+    reader.setCache(new AggregateCache(10, 60000));
+    EventSourcedAccountRepository writer = new EventSourcedAccountRepository(store);
+    Account account = new Account();
+    account.setUsername("foo");
+    writer.save(account);
+    reader.findBy(account.getAccountId());
+
+    // when
+    writer.update(account.getAccountId(), a -> a.setEmail("foo@example.com"));
+    Account found = reader.findBy(account.getAccountId());
+
+    // then
+    assertThat(found.getEmail()).isEqualTo("foo@example.com");
+    assertThat(found.getVersion()).isEqualTo(2L);
+    assertThat(reader.getCache().getMisses()).isEqualTo(1L);
+    assertThat(reader.getCache().getHits()).isEqualTo(1L);
+  }
+
+  @Test
+  void shouldReadAccountAsOfARevisionAcrossALongHistory() {
+    // given
+    List<Integer> pagesRead = new ArrayList<>();
+    InMemoryEventStore store = new InMemoryEventStore() {
+      @Override
+      public Stream<DomainEvent> readStream(String streamId, long version, int maxCount) {
+        return super.readStream(streamId, version, maxCount).peek(event -> pagesRead.add(maxCount));
+      }
+    };
+    EventSourcedAccountRepository repository = new EventSourcedAccountRepository(store, new UsernameIndex(store, null),
+        50);
+    repository.setPageSize(100);
+    Account account = new Account();
+    account.setUsername("foo");
+    repository.save(account);
+    for (int i = 0; i < 1000; i++) {
+      int n = i;
+      repository.update(account.getAccountId(), a -> a.setEmail("v" + n));
+    }
+
+    // when
+    Account early = repository.findBy(account.getAccountId(), 2);
+    pagesRead.clear();
+    Account middle = repository.findBy(account.getAccountId(), 777);
+    int eventsRead = pagesRead.size();
+    Account past = repository.findBy(account.getAccountId(), 5000);
+
+    // then
+    assertThat(early.getEmail()).isEqualTo("v0");
+    assertThat(early.getVersion()).isEqualTo(2L);
+    assertThat(middle.getEmail()).isEqualTo("v775");
+    assertThat(middle.getUsername()).isEqualTo("foo");
+    assertThat(middle.getVersion()).isEqualTo(777L);
+    assertThat(eventsRead).isEqualTo(778);
+    assertThat(past.getEmail()).isEqualTo("v999");
+    assertThat(past.getVersion()).isEqualTo(1001L);
+  }
+
+  @Test
+  void shouldReadAccountAsOfATimestampFromTheSnapshotWhenItIsOldEnough() throws Exception {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedAccountRepository repository = new EventSourcedAccountRepository(store, new UsernameIndex(store, null),
+        50);
+    repository.setPageSize(64);
+    String accountId = "a";
+    String streamId = new Account(accountId).getStreamId();
+    List<DomainEvent> events = new ArrayList<>();
+    events.add(new EntityCreatedEvent(streamId, Account.class.getName(), 0L));
+    for (int i = 1; i <= 300; i++) {
+      AttributeUpdatedEvent event = new AttributeUpdatedEvent(streamId, Account.class.getName(), i * 1000L);
+      event.setName("email");
+      event.setValue("v" + i);
+      events.add(event);
+    }
+    store.appendToStream(streamId, events);
+    Map<String, Object> state = new HashMap<>();
+    state.put("email", "v250");
+    state.put("firstName", "snapshot");
+    store.saveSnapshot(new Snapshot(streamId, 250, state));
+
+    // when
+    Account beforeSnapshot = repository.findAsOf(accountId, 100_500L);
+    Account afterSnapshot = repository.findAsOf(accountId, 260_000L);
+    Account latest = repository.findAsOf(accountId, Long.MAX_VALUE);
+
+    // then
+    assertThat(beforeSnapshot.getEmail()).isEqualTo("v100");
+    assertThat(beforeSnapshot.getFirstName()).isNull();
+    assertThat(beforeSnapshot.getVersion()).isEqualTo(100L);
+    assertThat(afterSnapshot.getEmail()).isEqualTo("v260");
+    assertThat(afterSnapshot.getFirstName()).isEqualTo("snapshot");
+    assertThat(afterSnapshot.getVersion()).isEqualTo(260L);
+    assertThat(latest.getEmail()).isEqualTo("v300");
+    assertThat(latest.getVersion()).isEqualTo(300L);
+  }
+
+  private static List<DomainEvent> history(String accountId) {
+    Account account = new Account(accountId);
+    account.setUsername("foo");
+    List<DomainEvent> events = new ArrayList<>();
+    events.add(new EntityCreatedEvent(account.getStreamId(), Account.class.getName(), 0L));
+    events.addAll(account.getEvents());
+    return events;
+  }
+
+  static class PasswordHashedEvent extends DomainEvent {
+    PasswordHashedEvent(String streamId) {
+      super(streamId, Account.class.getName(), 0L);
+    }
+  }
+
+}
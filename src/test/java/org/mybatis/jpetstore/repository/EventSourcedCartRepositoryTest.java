@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+import org.mybatis.jpetstore.core.InMemoryEventStore;
+import org.mybatis.jpetstore.domain.Cart;
+import org.mybatis.jpetstore.domain.Item;
+
+class EventSourcedCartRepositoryTest {
+
+  @Test
+  void shouldRebuildCartsFromTheStoreById() {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedCartRepository repository = new EventSourcedCartRepository(store);
+    String cartId = "cart-1";
+
+    // when
+    repository.update(cartId, cart -> cart.addItem(item("EST-1", "16.50"), true));
+    repository.update(cartId, cart -> cart.addItem(item("EST-2", "10.00"), false));
+    repository.update(cartId, cart -> cart.incrementQuantityByItemId("EST-1"));
+    repository.update(cartId, cart -> cart.removeItemById("EST-2"));
+    Cart cart = new EventSourcedCartRepository(store).findBy(cartId);
+
+    // then
+    assertThat(cart.getVersion()).isEqualTo(3L);
+    assertThat(cart.getNumberOfItems()).isEqualTo(1);
+    assertThat(cart.getCartItemList().get(0).getQuantity()).isEqualTo(2);
+    assertThat(cart.getSubTotal()).isEqualTo(new BigDecimal("33.00"));
+  }
+
+  @Test
+  void shouldServeCartsFromTheHotCacheWithoutSharingState() {
+    // given
+    InMemoryEventStore store = new InMemoryEventStore();
+    EventSourcedCartRepository repository = new EventSourcedCartRepository(store);
+    repository.setCache(new AggregateCache(10, 60000));
+    String cartId = "cart-1";
+    repository.update(cartId, cart -> cart.addItem(item("EST-1", "16.50"), true));
+
+    // when
+    Cart first = repository.findBy(cartId);
+    first.setQuantityByItemId("EST-1", 7);
+    Cart second = repository.findBy(cartId);
+
+    // then
+    assertThat(second.getCartItemList().get(0).getQuantity()).isEqualTo(1);
+    assertThat(second.getVersion()).isEqualTo(0L);
+    assertThat(repository.getCache().getHits()).isEqualTo(2L);
+  }
+
+  private static Item item(String itemId, String listPrice) {
+    Item item = new Item();
+    item.setItemId(itemId);
+    item.setListPrice(new BigDecimal(listPrice));
+    return item;
+  }
+
+}
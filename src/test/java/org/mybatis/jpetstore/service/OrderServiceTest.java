@@ -16,9 +16,10 @@
 package org.mybatis.jpetstore.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.assertj.core.api.Assertions.fail;
-import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
@@ -34,11 +35,9 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.mybatis.jpetstore.domain.Item;
 import org.mybatis.jpetstore.domain.LineItem;
 import org.mybatis.jpetstore.domain.Order;
-import org.mybatis.jpetstore.domain.Sequence;
 import org.mybatis.jpetstore.mapper.ItemMapper;
 import org.mybatis.jpetstore.mapper.LineItemMapper;
 import org.mybatis.jpetstore.mapper.OrderMapper;
-import org.mybatis.jpetstore.mapper.SequenceMapper;
 
 /**
  * @author coderliux
@@ -53,7 +52,7 @@ class OrderServiceTest {
   @Mock
   private LineItemMapper lineItemMapper;
   @Mock
-  private SequenceMapper sequenceMapper;
+  private SequenceAllocator sequenceAllocator;
 
   @InjectMocks
   private OrderService orderService;
@@ -115,38 +114,16 @@ class OrderServiceTest {
   }
 
   @Test
-  void shouldReturnNextId() {
+  void shouldReturnNextIdFromTheAllocator() {
 
     // given
-    Sequence expectedSequence = new Sequence("order", 100);
 
     // when
-    when(sequenceMapper.getSequence(any())).thenReturn(expectedSequence);
+    when(sequenceAllocator.nextId("order")).thenReturn(100);
     int nextId = orderService.getNextId("order");
 
     // then
     assertThat(nextId).isEqualTo(100);
-    verify(sequenceMapper).getSequence(argThat(v -> v.getName().equals("order") && v.getNextId() == -1));
-    verify(sequenceMapper).updateSequence(argThat(v -> v.getName().equals("order") && v.getNextId() == 101));
-
-  }
-
-  @Test
-  void shouldThrowExceptionWhenSequenceNotFound() {
-
-    // given
-
-    // when
-    when(sequenceMapper.getSequence(any())).thenReturn(null);
-    try {
-      orderService.getNextId("order");
-      fail("Should throw an exception when sequence not found.");
-    } catch (RuntimeException e) {
-      // then
-      assertThat(e.getMessage())
-          .isEqualTo("Error: A null sequence was returned from the database (could not get next order sequence).");
-      verify(sequenceMapper).getSequence(argThat(v -> v.getName().equals("order") && v.getNextId() == -1));
-    }
 
   }
 
@@ -161,21 +138,40 @@ class OrderServiceTest {
     item.setQuantity(quantity);
     order.addLineItem(item);
 
-    Sequence orderNumSequence = new Sequence("ordernum", 100);
-
-    Map<String, Object> expectedItemParam = new HashMap<>(2);
-    expectedItemParam.put("itemId", itemId);
-    expectedItemParam.put("increment", quantity);
+    Map<String, Integer> expectedIncrements = new HashMap<>(2);
+    expectedIncrements.put(itemId, quantity);
 
     // when
-    when(sequenceMapper.getSequence(any())).thenReturn(orderNumSequence);
+    when(sequenceAllocator.nextId("ordernum")).thenReturn(100);
     orderService.insertOrder(order);
 
     // then
     verify(orderMapper).insertOrder(argThat(v -> v == order && v.getOrderId() == 100));
     verify(orderMapper).insertOrderStatus(eq(order));
-    verify(lineItemMapper).insertLineItem(argThat(v -> v == item && v.getOrderId() == 100));
-    verify(itemMapper).updateInventoryQuantity(eq(expectedItemParam));
+    verify(lineItemMapper).insertLineItems(argThat(v -> v.size() == 1 && v.get(0) == item && item.getOrderId() == 100));
+    verify(itemMapper).updateInventoryQuantities(eq(expectedIncrements));
+  }
+
+  @Test
+  void shouldUpdateInventoryAndInsertLineItemsInOneStatementEach() {
+    // given
+    Order order = new Order();
+    for (int i = 0; i < 100; i++) {
+      LineItem lineItem = new LineItem();
+      lineItem.setItemId("I" + (i % 50));
+      lineItem.setQuantity(1);
+      order.addLineItem(lineItem);
+    }
+    when(sequenceAllocator.nextId("ordernum")).thenReturn(100);
+
+    // when
+    orderService.insertOrder(order);
+
+    // then
+    verify(itemMapper)
+        .updateInventoryQuantities(argThat(v -> v.size() == 50 && v.values().stream().allMatch(q -> q == 2)));
+    verify(lineItemMapper).insertLineItems(argThat(v -> v.size() == 100));
+    verifyNoMoreInteractions(itemMapper, lineItemMapper);
   }
 
 }
\ No newline at end of file
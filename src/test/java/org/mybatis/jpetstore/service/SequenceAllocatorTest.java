@@ -0,0 +1,133 @@
+/*
+ *    Copyright 2010-2023 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.jpetstore.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mybatis.jpetstore.mapper.MapperTestContext;
+import org.mybatis.jpetstore.mapper.SequenceMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes = MapperTestContext.class)
+class SequenceAllocatorTest {
+
+  @Autowired
+  private SequenceMapper sequenceMapper;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private String name;
+
+  @BeforeEach
+  void setUp() {
+    // a sequence of its own, as the blocks are reserved in committed transactions
+    name = "test" + System.nanoTime();
+    jdbcTemplate.update("INSERT INTO sequence VALUES(?, ?)", name, 1000);
+  }
+
+  @Test
+  void shouldReserveOneBlockPerBlockSizeIds() {
+    // given
+    SequenceAllocator allocator = new SequenceAllocator(sequenceMapper, transactionManager);
+    allocator.setBlockSize(10);
+
+    // when
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      ids.add(allocator.nextId(name));
+    }
+
+    // then
+    assertThat(ids.get(0)).isEqualTo(1000);
+    assertThat(ids).isSorted().doesNotHaveDuplicates().hasSize(25);
+    assertThat(ids.get(24)).isEqualTo(1024);
+    assertThat(nextIdInTable()).isEqualTo(1030);
+  }
+
+  @Test
+  void shouldNotHandOutTheSameIdTwiceAcrossThreadsAndAllocators() throws Exception {
+    // given
+    SequenceAllocator first = new SequenceAllocator(sequenceMapper, transactionManager);
+    first.setBlockSize(7);
+    SequenceAllocator second = new SequenceAllocator(sequenceMapper, transactionManager);
+    second.setBlockSize(13);
+    int threads = 8;
+    int idsPerThread = 500;
+    Set<Integer> ids = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+
+    // when
+    for (int t = 0; t < threads; t++) {
+      SequenceAllocator allocator = t % 2 == 0 ? first : second;
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (int i = 0; i < idsPerThread; i++) {
+          assertThat(ids.add(allocator.nextId(name))).isTrue();
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    // then
+    assertThat(ids).hasSize(threads * idsPerThread);
+    assertThat(ids).allMatch(id -> id >= 1000 && id < nextIdInTable());
+  }
+
+  @Test
+  void shouldFailWhenTheSequenceDoesNotExist() {
+    // given
+    SequenceAllocator allocator = new SequenceAllocator(sequenceMapper, transactionManager);
+
+    // when, then
+    assertThatThrownBy(() -> allocator.nextId("order")).isInstanceOf(RuntimeException.class)
+        .hasMessage("Error: A null sequence was returned from the database (could not get next order sequence).");
+  }
+
+  private int nextIdInTable() {
+    return jdbcTemplate.queryForObject("SELECT nextid FROM sequence WHERE name = ?", Integer.class, name);
+  }
+
+}